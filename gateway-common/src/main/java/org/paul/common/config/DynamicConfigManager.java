@@ -1,31 +1,33 @@
 package org.paul.common.config;
 
-import org.apache.commons.collections.CollectionUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.units.qual.A;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * 动态服务缓存配置管理类
  */
+@Slf4j
 public class DynamicConfigManager {
 
     //	服务的定义集合：uniqueId代表服务的唯一标识
     private ConcurrentHashMap<String /* uniqueId */ , ServiceDefinition> serviceDefinitionMap = new ConcurrentHashMap<>();
 
-    //	服务的实例集合：uniqueId与一对服务实例对应
-    private ConcurrentHashMap<String /* uniqueId */ , Set<ServiceInstance>> serviceInstanceMap = new ConcurrentHashMap<>();
+    //	服务的实例集合：uniqueId与一组服务实例的不可变快照对应，变化时整体替换
+    private ConcurrentHashMap<String /* uniqueId */ , ServiceInstanceSnapshot> serviceInstanceMap = new ConcurrentHashMap<>();
 
-    //	规则集合
-    private ConcurrentHashMap<String /* ruleId */ , Rule> ruleMap = new ConcurrentHashMap<>();
+    //	路由表快照：规则及其所有索引，规则变化时整体替换，读线程无锁读取
+    private volatile RouteTable routeTable = RouteTable.EMPTY;
 
-    //路径规则map
-    private ConcurrentHashMap<String /* 路径 */, Rule> pathRuleMap = new ConcurrentHashMap<>();
+    //	路由表监听器：新路由表发布之前回调，用于在加载规则时预先编译依赖规则的对象
+    private final List<Consumer<RouteTable>> routeTableListeners = new CopyOnWriteArrayList<>();
 
-    //服务id，规则的list map
-    private ConcurrentHashMap<String /* 服务id */, List<Rule>> serviceIdRuleMap = new ConcurrentHashMap<>();
+    //	实例下线监听器：实例从服务的快照中移除后回调，用于清理按实例保存的状态
+    private final List<Consumer<ServiceInstance>> instanceRemovedListeners = new CopyOnWriteArrayList<>();
 
     private DynamicConfigManager() {
     }
@@ -61,109 +63,146 @@ public class DynamicConfigManager {
     /***************** 	对服务实例缓存进行操作的系列方法 	***************/
 
     public Set<ServiceInstance> getServiceInstanceByUniqueId(String uniqueId, boolean gray) {
-        Set<ServiceInstance> serviceInstances = serviceInstanceMap.get(uniqueId);
-        if(CollectionUtils.isEmpty(serviceInstances)){
-            return Collections.emptySet();
-        }
+        //如果是灰度的，返回所有标识为灰度的下游服务，否则返回全部服务
+        return getServiceInstanceSnapshot(uniqueId).getInstanceSet(gray);
+    }
 
-        //如果是灰度的，将所有下游服务标识为灰度的进行返回
-        if(gray){
-            return serviceInstances.stream()
-                    .filter(ServiceInstance::isGray)
-                    .collect(Collectors.toSet());
-        }
-        //否则返回全部服务
-        return serviceInstances;
+    /**
+     * 获取服务实例快照，没有实例时返回空快照
+     *
+     * @param uniqueId
+     * @return
+     */
+    public ServiceInstanceSnapshot getServiceInstanceSnapshot(String uniqueId) {
+        ServiceInstanceSnapshot snapshot = serviceInstanceMap.get(uniqueId);
+        return snapshot == null ? ServiceInstanceSnapshot.EMPTY : snapshot;
     }
 
     public void addServiceInstance(String uniqueId, ServiceInstance serviceInstance) {
-        Set<ServiceInstance> set = serviceInstanceMap.get(uniqueId);
-        set.add(serviceInstance);
+        serviceInstanceMap.compute(uniqueId, (k, snapshot) ->
+                (snapshot == null ? ServiceInstanceSnapshot.EMPTY : snapshot).with(serviceInstance));
     }
 
     public void addServiceInstance(String uniqueId, Set<ServiceInstance> serviceInstanceSet) {
-        serviceInstanceMap.put(uniqueId, serviceInstanceSet);
+        ServiceInstanceSnapshot snapshot = new ServiceInstanceSnapshot(serviceInstanceSet);
+        fireInstanceRemoved(serviceInstanceMap.put(uniqueId, snapshot), snapshot);
     }
 
     public void updateServiceInstance(String uniqueId, ServiceInstance serviceInstance) {
-        Set<ServiceInstance> set = serviceInstanceMap.get(uniqueId);
-        Iterator<ServiceInstance> it = set.iterator();
-        while (it.hasNext()) {
-            ServiceInstance is = it.next();
-            if (is.getServiceInstanceId().equals(serviceInstance.getServiceInstanceId())) {
-                it.remove();
-                break;
-            }
-        }
-        set.add(serviceInstance);
+        serviceInstanceMap.computeIfPresent(uniqueId, (k, snapshot) -> snapshot.with(serviceInstance));
     }
 
     public void removeServiceInstance(String uniqueId, String serviceInstanceId) {
-        Set<ServiceInstance> set = serviceInstanceMap.get(uniqueId);
-        Iterator<ServiceInstance> it = set.iterator();
-        while (it.hasNext()) {
-            ServiceInstance is = it.next();
-            if (is.getServiceInstanceId().equals(serviceInstanceId)) {
-                it.remove();
-                break;
-            }
-        }
+        ServiceInstanceSnapshot before = serviceInstanceMap.get(uniqueId);
+        ServiceInstanceSnapshot after = serviceInstanceMap.computeIfPresent(uniqueId, (k, snapshot) -> snapshot.without(serviceInstanceId));
+        fireInstanceRemoved(before, after);
     }
 
     public void removeServiceInstancesByUniqueId(String uniqueId) {
-        serviceInstanceMap.remove(uniqueId);
+        fireInstanceRemoved(serviceInstanceMap.remove(uniqueId), null);
+    }
+
+    /**
+     * 注册实例下线监听器
+     *
+     * @param listener
+     */
+    public void addInstanceRemovedListener(Consumer<ServiceInstance> listener) {
+        instanceRemovedListeners.add(listener);
+    }
+
+    /**
+     * 通知旧快照中有、新快照中没有的实例
+     */
+    private void fireInstanceRemoved(ServiceInstanceSnapshot before, ServiceInstanceSnapshot after) {
+        if (before == null || instanceRemovedListeners.isEmpty()) {
+            return;
+        }
+        Set<ServiceInstance> remaining = after == null ? Collections.emptySet() : after.getInstanceSet(false);
+        for (ServiceInstance instance : before.getInstances(false)) {
+            if (remaining.contains(instance)) {
+                continue;
+            }
+            for (Consumer<ServiceInstance> listener : instanceRemovedListeners) {
+                try {
+                    listener.accept(instance);
+                } catch (Exception e) {
+                    log.error("instance removed listener error, instance {}", instance.getServiceInstanceId(), e);
+                }
+            }
+        }
     }
 
 
     /***************** 	对规则缓存进行操作的系列方法 	***************/
 
-    public void putRule(String ruleId, Rule rule) {
-        ruleMap.put(ruleId, rule);
+    public synchronized void putRule(String ruleId, Rule rule) {
+        //写时复制：基于当前快照构建新快照
+        Map<String, Rule> rules = new HashMap<>(routeTable.getRuleMap());
+        rules.put(ruleId, rule);
+        publish(RouteTable.build(rules.values(), routeTable.getVersion() + 1));
     }
 
-    public void putAllRule(List<Rule> ruleList) {
-        //规则id，规则的map
-        ConcurrentHashMap<String /* ruleId */, Rule> newRuleMap = new ConcurrentHashMap<>();
-        //路径规则map
-        ConcurrentHashMap<String /* 路径 */, Rule> newPathRuleMap = new ConcurrentHashMap<>();
-        //服务id，规则map
-        ConcurrentHashMap<String /* 服务id */, List<Rule>> newServiceIdRuleMap = new ConcurrentHashMap<>();
+    public synchronized void putAllRule(List<Rule> ruleList) {
+        //构建包含所有索引的新快照，一次性发布
+        publish(RouteTable.build(ruleList, routeTable.getVersion() + 1));
+    }
+
+    public Rule getRule(String ruleId) {
+        return routeTable.getRule(ruleId);
+    }
 
-        //将rule放入上述map中
-        for (Rule rule : ruleList) {
-            //添加到ruleMap
-            newRuleMap.put(rule.getId(), rule);
+    public synchronized void removeRule(String ruleId) {
+        Map<String, Rule> rules = new HashMap<>(routeTable.getRuleMap());
+        if (rules.remove(ruleId) != null) {
+            publish(RouteTable.build(rules.values(), routeTable.getVersion() + 1));
+        }
+    }
 
-            //添加到serviceIdRuleMap
-            List<Rule> rules = newServiceIdRuleMap.get(rule.getServiceId());
-            if (rules == null) {
-                rules = new ArrayList<>();
-            }
-            rules.add(rule);
-            newServiceIdRuleMap.put(rule.getServiceId(), rules);
-
-            //添加到pathRuleMap
-            List<String> paths = rule.getPaths();
-            for (String path : paths) {
-                String key = rule.getServiceId() + "." + path;
-                newPathRuleMap.put(key, rule);
+    /**
+     * 先通知监听器再发布，请求拿到新路由表时，依赖它的对象已经准备好
+     */
+    private void publish(RouteTable table) {
+        for (Consumer<RouteTable> listener : routeTableListeners) {
+            try {
+                listener.accept(table);
+            } catch (Exception e) {
+                log.error("route table listener error, version {}", table.getVersion(), e);
             }
         }
-        ruleMap = newRuleMap;
-        pathRuleMap = newPathRuleMap;
-        serviceIdRuleMap = newServiceIdRuleMap;
+        routeTable = table;
     }
 
-    public Rule getRule(String ruleId) {
-        return ruleMap.get(ruleId);
+    /**
+     * 注册路由表监听器，注册时用当前路由表回调一次
+     *
+     * @param listener
+     */
+    public synchronized void addRouteTableListener(Consumer<RouteTable> listener) {
+        routeTableListeners.add(listener);
+        listener.accept(routeTable);
     }
 
-    public void removeRule(String ruleId) {
-        ruleMap.remove(ruleId);
+    public Map<String, Rule> getRuleMap() {
+        return routeTable.getRuleMap();
     }
 
-    public ConcurrentHashMap<String, Rule> getRuleMap() {
-        return ruleMap;
+    /**
+     * 获取当前路由表快照，一次请求内的多次查找应使用同一个快照
+     *
+     * @return
+     */
+    public RouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    /**
+     * 获取当前规则版本号
+     *
+     * @return
+     */
+    public long getRuleVersion() {
+        return routeTable.getVersion();
     }
 
     /**
@@ -173,10 +212,21 @@ public class DynamicConfigManager {
      * @return
      */
     public Rule getRuleByPath(String path) {
-        return pathRuleMap.get(path);
+        return routeTable.getRuleByPath(path);
     }
 
     public List<Rule> getRuleByServiceId(String serviceId) {
-        return serviceIdRuleMap.get(serviceId);
+        return routeTable.getRuleByServiceId(serviceId);
+    }
+
+    /**
+     * 根据服务id和请求路径，按最长前缀匹配规则
+     *
+     * @param serviceId
+     * @param path
+     * @return
+     */
+    public Rule getRuleByPrefix(String serviceId, String path) {
+        return routeTable.getRuleByPrefix(serviceId, path);
     }
-}
\ No newline at end of file
+}
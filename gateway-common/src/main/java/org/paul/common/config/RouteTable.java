@@ -0,0 +1,120 @@
+package org.paul.common.config;
+
+import java.util.*;
+
+/**
+ * 路由表快照
+ * 包含规则的所有索引和版本号，构建完成后不可变，规则变化时整体替换
+ * 读线程拿到一个快照后，所有查找都基于同一版本的规则，不会出现新旧索引混用
+ */
+public final class RouteTable {
+
+    public static final RouteTable EMPTY = build(Collections.emptyList(), 0);
+
+    //版本号，每次规则变化递增
+    private final long version;
+
+    //规则id，规则的map
+    private final Map<String /* ruleId */, Rule> ruleMap;
+
+    //路径规则map，key为 服务id.路径
+    private final Map<String /* 路径 */, Rule> pathRuleMap;
+
+    //服务id，规则list的map
+    private final Map<String /* 服务id */, List<Rule>> serviceIdRuleMap;
+
+    //服务id，路由前缀树的map
+    private final Map<String /* 服务id */, RouteTrie> serviceIdRouteTrieMap;
+
+    private RouteTable(long version,
+                       Map<String, Rule> ruleMap,
+                       Map<String, Rule> pathRuleMap,
+                       Map<String, List<Rule>> serviceIdRuleMap,
+                       Map<String, RouteTrie> serviceIdRouteTrieMap) {
+        this.version = version;
+        this.ruleMap = ruleMap;
+        this.pathRuleMap = pathRuleMap;
+        this.serviceIdRuleMap = serviceIdRuleMap;
+        this.serviceIdRouteTrieMap = serviceIdRouteTrieMap;
+    }
+
+    /**
+     * 根据规则集合构建路由表
+     *
+     * @param rules
+     * @param version
+     * @return
+     */
+    public static RouteTable build(Collection<Rule> rules, long version) {
+        Map<String, Rule> ruleMap = new HashMap<>();
+        Map<String, Rule> pathRuleMap = new HashMap<>();
+        Map<String, List<Rule>> serviceIdRuleMap = new HashMap<>();
+        Map<String, RouteTrie> serviceIdRouteTrieMap = new HashMap<>();
+
+        for (Rule rule : rules) {
+            //添加到ruleMap
+            ruleMap.put(rule.getId(), rule);
+
+            //添加到serviceIdRuleMap
+            serviceIdRuleMap.computeIfAbsent(rule.getServiceId(), k -> new ArrayList<>()).add(rule);
+
+            //添加到路由前缀树
+            serviceIdRouteTrieMap.computeIfAbsent(rule.getServiceId(), k -> new RouteTrie()).insert(rule);
+
+            //添加到pathRuleMap
+            List<String> paths = rule.getPaths();
+            if (paths != null) {
+                for (String path : paths) {
+                    pathRuleMap.put(rule.getServiceId() + "." + path, rule);
+                }
+            }
+        }
+        serviceIdRuleMap.replaceAll((serviceId, list) -> Collections.unmodifiableList(list));
+
+        return new RouteTable(version,
+                Collections.unmodifiableMap(ruleMap),
+                Collections.unmodifiableMap(pathRuleMap),
+                Collections.unmodifiableMap(serviceIdRuleMap),
+                Collections.unmodifiableMap(serviceIdRouteTrieMap));
+    }
+
+    /**
+     * 根据服务id和请求路径查找规则：先精确匹配路径，再按最长前缀匹配，找不到返回null
+     *
+     * @param serviceId
+     * @param path
+     * @return
+     */
+    public Rule findRule(String serviceId, String path) {
+        Rule rule = pathRuleMap.get(serviceId + "." + path);
+        if (rule != null) {
+            return rule;
+        }
+        return getRuleByPrefix(serviceId, path);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Rule getRule(String ruleId) {
+        return ruleMap.get(ruleId);
+    }
+
+    public Map<String, Rule> getRuleMap() {
+        return ruleMap;
+    }
+
+    public Rule getRuleByPath(String path) {
+        return pathRuleMap.get(path);
+    }
+
+    public List<Rule> getRuleByServiceId(String serviceId) {
+        return serviceIdRuleMap.get(serviceId);
+    }
+
+    public Rule getRuleByPrefix(String serviceId, String path) {
+        RouteTrie routeTrie = serviceIdRouteTrieMap.get(serviceId);
+        return routeTrie == null ? null : routeTrie.match(path);
+    }
+}
@@ -0,0 +1,108 @@
+package org.paul.common.config;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 路由前缀树（压缩字典树）
+ * 一个服务的所有规则按prefix构建一棵树，查找时返回匹配请求路径的最长前缀对应的规则
+ * 前缀相同的多个规则，取order最小的（order为空排在最后），order相同再按id排序，保证结果确定
+ * 树在规则变化时构建，构建完成后只读，可以被多个线程并发查找
+ */
+public class RouteTrie {
+
+    /**
+     * 同一前缀下规则的优先级
+     */
+    private static final Comparator<Rule> RULE_PRIORITY = Comparator
+            .comparing(Rule::getOrder, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(Rule::getId, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private final Node root = new Node("");
+
+    /**
+     * 添加规则，prefix为空的规则不参与前缀匹配
+     *
+     * @param rule
+     */
+    public void insert(Rule rule) {
+        String prefix = rule.getPrefix();
+        if (prefix == null) {
+            return;
+        }
+        Node node = root;
+        int index = 0;
+        while (index < prefix.length()) {
+            Node child = node.children.get(prefix.charAt(index));
+            if (child == null) {
+                child = new Node(prefix.substring(index));
+                node.children.put(prefix.charAt(index), child);
+                node = child;
+                index = prefix.length();
+                break;
+            }
+            //计算公共前缀长度
+            int common = commonLength(child.label, prefix, index);
+            if (common < child.label.length()) {
+                //公共部分小于节点标签，拆分节点
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.children.put(child.label.charAt(0), child);
+                node.children.put(split.label.charAt(0), split);
+                child = split;
+            }
+            node = child;
+            index += common;
+        }
+        if (node.rule == null || RULE_PRIORITY.compare(rule, node.rule) < 0) {
+            node.rule = rule;
+        }
+    }
+
+    /**
+     * 查找最长前缀匹配的规则，没有匹配返回null
+     *
+     * @param path
+     * @return
+     */
+    public Rule match(String path) {
+        Rule matched = root.rule;
+        Node node = root;
+        int index = 0;
+        while (index < path.length()) {
+            Node child = node.children.get(path.charAt(index));
+            if (child == null || !path.startsWith(child.label, index)) {
+                break;
+            }
+            node = child;
+            index += child.label.length();
+            if (node.rule != null) {
+                matched = node.rule;
+            }
+        }
+        return matched;
+    }
+
+    private static int commonLength(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 树节点，label是从父节点到当前节点的路径片段
+     */
+    private static class Node {
+        private String label;
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private Rule rule;
+
+        private Node(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package org.paul.common.config;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.StringUtils;
+import org.paul.common.constants.GatewayConst;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
+
+import static org.paul.common.constants.FilterConst.*;
 
 /**
  * @author paul
@@ -69,6 +76,32 @@ public class Rule implements Comparable<Rule>, Serializable {
      */
     private Set<HystrixConfig> hystrixConfigs = new HashSet<>();
 
+    /**
+     * 是否开启请求体流式转发，开启后请求体不经过HttpObjectAggregator聚合，分块直接转发给下游服务，适用于大文件上传
+     */
+    private boolean requestStreaming;
+
+    /**
+     * 是否开启响应流式转发，开启后下游响应头到达即写回客户端，响应体分块转发，适用于大文件下载
+     */
+    private boolean responseStreaming;
+
+    /**
+     * 优先级：0 low / 1 normal / 2 critical，网关过载时先丢弃低优先级的请求
+     */
+    private int priority = GatewayConst.PRIORITY_NORMAL;
+
+    /**
+     * 解析后的负载均衡配置，规则加载时生成，没有配置负载均衡过滤器时为null
+     */
+    @JSONField(serialize = false, deserialize = false)
+    @Setter(AccessLevel.NONE)
+    private transient volatile LoadBalanceConfig loadBalanceConfig;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient volatile boolean loadBalanceCompiled;
+
     public RetryConfig getRetryConfig() {
         return retryConfig;
     }
@@ -104,6 +137,12 @@ public class Rule implements Comparable<Rule>, Serializable {
          */
         private String config;
 
+        /**
+         * 解析后的过滤器配置，规则加载时生成，只读
+         */
+        @JSONField(serialize = false, deserialize = false)
+        private transient volatile Map<String, String> params;
+
         public String getId() {
             return id;
         }
@@ -118,6 +157,51 @@ public class Rule implements Comparable<Rule>, Serializable {
 
         public void setConfig(String config) {
             this.config = config;
+            this.params = null;
+        }
+
+        /**
+         * 获取解析后的配置，没有经过compile的规则在第一次访问时解析
+         *
+         * @return
+         */
+        @JSONField(serialize = false, deserialize = false)
+        public Map<String, String> getParams() {
+            Map<String, String> current = params;
+            if (current == null) {
+                current = compile();
+            }
+            return current;
+        }
+
+        public String getParam(String key) {
+            return getParams().get(key);
+        }
+
+        /**
+         * 把JSON格式的配置解析为只读map，配置格式错误时抛出IllegalArgumentException
+         *
+         * @return
+         */
+        public Map<String, String> compile() {
+            Map<String, String> result;
+            if (StringUtils.isEmpty(config)) {
+                result = Collections.emptyMap();
+            } else {
+                JSONObject jsonObject;
+                try {
+                    jsonObject = JSON.parseObject(config);
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("invalid config of filter " + id + ": " + config, e);
+                }
+                result = new HashMap<>();
+                for (Map.Entry<String, Object> entry : jsonObject.entrySet()) {
+                    result.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toString());
+                }
+                result = Collections.unmodifiableMap(result);
+            }
+            params = result;
+            return result;
         }
 
         @Override
@@ -158,6 +242,14 @@ public class Rule implements Comparable<Rule>, Serializable {
          */
         private String config;
 
+        /**
+         * 解析后的限流参数，规则加载时生成，config为空时为null
+         */
+        @JSONField(serialize = false, deserialize = false)
+        private transient volatile FlowCtlLimit limit;
+
+        private transient volatile boolean compiled;
+
         public String getType() {
             return type;
         }
@@ -188,9 +280,219 @@ public class Rule implements Comparable<Rule>, Serializable {
 
         public void setConfig(String config) {
             this.config = config;
+            this.compiled = false;
+        }
+
+        /**
+         * 获取解析后的限流参数，没有经过compile的规则在第一次访问时解析
+         *
+         * @return 没有配置限流参数时返回null
+         */
+        @JSONField(serialize = false, deserialize = false)
+        public FlowCtlLimit getLimit() {
+            if (!compiled) {
+                compile();
+            }
+            return limit;
+        }
+
+        /**
+         * 校验限流配置并解析限流参数，配置错误时抛出IllegalArgumentException
+         */
+        public void compile() {
+            if (StringUtils.isEmpty(type) || StringUtils.isEmpty(model)) {
+                throw new IllegalArgumentException("flow control type and model are required: " + value);
+            }
+            limit = StringUtils.isEmpty(config) ? null : FlowCtlLimit.parse(config);
+            compiled = true;
         }
     }
 
+    /**
+     * 解析后的限流参数：duration秒内permits个请求，单机限流另外支持桶容量和分段数
+     * 分布式限流另外支持租约大小和redis不可用时的降级方式
+     */
+    @Data
+    public static final class FlowCtlLimit {
+        private final int permits;
+        private final int duration;
+        private final int burst;
+        private final int stripes;
+        //每次从redis租用的令牌数，0表示不租用，每个请求都访问redis
+        private final int lease;
+        //redis慢或者不可用时的降级方式
+        private final String fallback;
+        //网关节点数，降级为单机限流时按节点数分摊速率
+        private final int nodes;
+
+        /**
+         * 每秒令牌数
+         */
+        public double getPermitsPerSecond() {
+            return (double) permits / duration;
+        }
+
+        /**
+         * 单个节点分摊到的限流参数：令牌数和桶容量除以节点数，至少为1
+         */
+        public FlowCtlLimit perNode() {
+            if (nodes <= 1) {
+                return this;
+            }
+            return new FlowCtlLimit(Math.max(1, permits / nodes), duration, Math.max(1, burst / nodes),
+                    stripes, lease, fallback, 1);
+        }
+
+        static FlowCtlLimit parse(String config) {
+            JSONObject jsonObject;
+            try {
+                jsonObject = JSON.parseObject(config);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("invalid flow control config: " + config, e);
+            }
+            int permits = positive(jsonObject, FLOW_CTL_LIMIT_PERMITS, config);
+            int duration = positive(jsonObject, FLOW_CTL_LIMIT_DURATION, config);
+            //桶容量默认为一秒的令牌数
+            int burst = jsonObject.containsKey(FLOW_CTL_LIMIT_BURST)
+                    ? positive(jsonObject, FLOW_CTL_LIMIT_BURST, config)
+                    : (int) Math.max(1, Math.ceil((double) permits / duration));
+            int stripes = jsonObject.containsKey(FLOW_CTL_LIMIT_STRIPES)
+                    ? positive(jsonObject, FLOW_CTL_LIMIT_STRIPES, config) : 1;
+            int lease = jsonObject.containsKey(FLOW_CTL_LIMIT_LEASE)
+                    ? positive(jsonObject, FLOW_CTL_LIMIT_LEASE, config) : 0;
+            String fallback = jsonObject.getString(FLOW_CTL_LIMIT_FALLBACK);
+            if (fallback == null) {
+                fallback = FLOW_CTL_FALLBACK_LOCAL;
+            } else if (!FLOW_CTL_FALLBACK_LOCAL.equalsIgnoreCase(fallback)
+                    && !FLOW_CTL_FALLBACK_ALLOW.equalsIgnoreCase(fallback)
+                    && !FLOW_CTL_FALLBACK_DENY.equalsIgnoreCase(fallback)) {
+                throw new IllegalArgumentException("unknown fallback in flow control config: " + config);
+            }
+            int nodes = jsonObject.containsKey(FLOW_CTL_LIMIT_NODES)
+                    ? positive(jsonObject, FLOW_CTL_LIMIT_NODES, config) : 1;
+            return new FlowCtlLimit(permits, duration, burst, stripes, lease, fallback, nodes);
+        }
+
+        private static int positive(JSONObject jsonObject, String key, String config) {
+            Integer value;
+            try {
+                value = jsonObject.getInteger(key);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("invalid " + key + " in flow control config: " + config, e);
+            }
+            if (value == null || value <= 0) {
+                throw new IllegalArgumentException(key + " must be positive in flow control config: " + config);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 解析后的负载均衡配置：策略和一致性哈希的key来源
+     */
+    @Data
+    public static final class LoadBalanceConfig {
+        private final Strategy strategy;
+        private final HashKeySource hashKeySource;
+        //header、query、cookie的名称，ip时为null
+        private final String hashKeyName;
+
+        static LoadBalanceConfig parse(Map<String, String> params) {
+            Strategy strategy = Strategy.of(params.getOrDefault(LOAD_BALANCE_KEY, LOAD_BALANCE_STRATEGY_RANDOM));
+            String spec = params.get(LOAD_BALANCE_HASH_KEY);
+            if (StringUtils.isEmpty(spec) || LOAD_BALANCE_HASH_KEY_IP.equals(spec)) {
+                return new LoadBalanceConfig(strategy, HashKeySource.IP, null);
+            }
+            HashKeySource source;
+            String name;
+            if (spec.startsWith(LOAD_BALANCE_HASH_KEY_HEADER)) {
+                source = HashKeySource.HEADER;
+                name = spec.substring(LOAD_BALANCE_HASH_KEY_HEADER.length());
+            } else if (spec.startsWith(LOAD_BALANCE_HASH_KEY_QUERY)) {
+                source = HashKeySource.QUERY;
+                name = spec.substring(LOAD_BALANCE_HASH_KEY_QUERY.length());
+            } else if (spec.startsWith(LOAD_BALANCE_HASH_KEY_COOKIE)) {
+                source = HashKeySource.COOKIE;
+                name = spec.substring(LOAD_BALANCE_HASH_KEY_COOKIE.length());
+            } else {
+                throw new IllegalArgumentException("unknown load balance hash key: " + spec);
+            }
+            if (StringUtils.isEmpty(name)) {
+                throw new IllegalArgumentException("load balance hash key name is required: " + spec);
+            }
+            return new LoadBalanceConfig(strategy, source, name);
+        }
+
+        /**
+         * 负载均衡策略
+         */
+        public enum Strategy {
+            RANDOM(LOAD_BALANCE_STRATEGY_RANDOM),
+            ROUND_ROBIN(LOAD_BALANCE_STRATEGY_ROUND_ROBIN),
+            WEIGHTED_ROUND_ROBIN(LOAD_BALANCE_STRATEGY_WEIGHTED_ROUND_ROBIN),
+            P2C(LOAD_BALANCE_STRATEGY_P2C),
+            CONSISTENT_HASH(LOAD_BALANCE_STRATEGY_CONSISTENT_HASH);
+
+            //配置中的名称
+            private final String code;
+
+            Strategy(String code) {
+                this.code = code;
+            }
+
+            public String getCode() {
+                return code;
+            }
+
+            static Strategy of(String code) {
+                for (Strategy strategy : values()) {
+                    if (strategy.code.equals(code)) {
+                        return strategy;
+                    }
+                }
+                throw new IllegalArgumentException("unknown load balance strategy: " + code);
+            }
+        }
+
+        /**
+         * 一致性哈希的key来源
+         */
+        public enum HashKeySource {
+            IP, HEADER, QUERY, COOKIE
+        }
+    }
+
+    /**
+     * 获取解析后的负载均衡配置，没有经过compile的规则在第一次访问时解析
+     *
+     * @return 没有配置负载均衡过滤器时返回null
+     */
+    @JSONField(serialize = false, deserialize = false)
+    public LoadBalanceConfig getLoadBalanceConfig() {
+        if (!loadBalanceCompiled) {
+            compileLoadBalanceConfig();
+        }
+        return loadBalanceConfig;
+    }
+
+    private void compileLoadBalanceConfig() {
+        LoadBalanceConfig result = null;
+        if (filterConfigs != null) {
+            for (FilterConfig filterConfig : filterConfigs) {
+                if (filterConfig != null && LOAD_BALANCE_FILTER_ID.equals(filterConfig.getId())) {
+                    result = LoadBalanceConfig.parse(filterConfig.getParams());
+                }
+            }
+        }
+        loadBalanceConfig = result;
+        loadBalanceCompiled = true;
+    }
+
+    public void setFilterConfigs(Set<FilterConfig> filterConfigs) {
+        this.filterConfigs = filterConfigs;
+        this.loadBalanceCompiled = false;
+    }
+
     /**
      * 熔断配置
      */
@@ -265,6 +567,39 @@ public class Rule implements Comparable<Rule>, Serializable {
         return false;
     }
 
+    /**
+     * 校验规则并把过滤器、限流的JSON配置解析为只读对象，规则加载时调用一次，请求处理时不再解析JSON
+     * 配置错误时抛出IllegalArgumentException
+     */
+    public void compile() {
+        if (StringUtils.isEmpty(id) || StringUtils.isEmpty(serviceId)) {
+            throw new IllegalArgumentException("rule id and serviceId are required: " + id);
+        }
+        if (priority < GatewayConst.PRIORITY_LOW || priority > GatewayConst.PRIORITY_CRITICAL) {
+            throw new IllegalArgumentException("rule " + id + ": unknown priority " + priority);
+        }
+        try {
+            if (filterConfigs != null) {
+                for (FilterConfig filterConfig : filterConfigs) {
+                    if (filterConfig == null) {
+                        continue;
+                    }
+                    filterConfig.compile();
+                }
+            }
+            compileLoadBalanceConfig();
+            if (flowCtlConfigs != null) {
+                for (FlowCtlConfig flowCtlConfig : flowCtlConfigs) {
+                    if (flowCtlConfig != null) {
+                        flowCtlConfig.compile();
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("rule " + id + ": " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public int compareTo(Rule o) {
         int compareOrder = Integer.compare(this.getOrder(), o.getOrder());
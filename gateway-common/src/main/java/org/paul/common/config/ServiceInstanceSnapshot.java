@@ -0,0 +1,92 @@
+package org.paul.common.config;
+
+import java.util.*;
+
+/**
+ * 服务实例快照
+ * 一个服务的全部实例和灰度实例，构建后不可变，注册中心变化时整体替换
+ * 负载均衡直接按下标访问数组，不需要每次请求复制集合
+ */
+public final class ServiceInstanceSnapshot {
+
+    private static final ServiceInstance[] EMPTY_ARRAY = new ServiceInstance[0];
+
+    public static final ServiceInstanceSnapshot EMPTY = new ServiceInstanceSnapshot(Collections.emptyList());
+
+    //全部实例
+    private final ServiceInstance[] instances;
+
+    //灰度实例
+    private final ServiceInstance[] grayInstances;
+
+    private final Set<ServiceInstance> instanceSet;
+
+    private final Set<ServiceInstance> grayInstanceSet;
+
+    public ServiceInstanceSnapshot(Collection<ServiceInstance> serviceInstances) {
+        Set<ServiceInstance> all = new LinkedHashSet<>(serviceInstances);
+        Set<ServiceInstance> gray = new LinkedHashSet<>();
+        for (ServiceInstance serviceInstance : all) {
+            if (serviceInstance.isGray()) {
+                gray.add(serviceInstance);
+            }
+        }
+        this.instances = all.toArray(EMPTY_ARRAY);
+        this.grayInstances = gray.toArray(EMPTY_ARRAY);
+        this.instanceSet = Collections.unmodifiableSet(all);
+        this.grayInstanceSet = Collections.unmodifiableSet(gray);
+    }
+
+    /**
+     * 获取实例数组，同一个快照每次返回同一个数组，调用方不能修改
+     *
+     * @param gray 是否只要灰度实例
+     * @return
+     */
+    public ServiceInstance[] getInstances(boolean gray) {
+        return gray ? grayInstances : instances;
+    }
+
+    /**
+     * 获取只读的实例集合
+     *
+     * @param gray 是否只要灰度实例
+     * @return
+     */
+    public Set<ServiceInstance> getInstanceSet(boolean gray) {
+        return gray ? grayInstanceSet : instanceSet;
+    }
+
+    /**
+     * 基于当前快照，替换或新增一个实例，返回新快照
+     *
+     * @param serviceInstance
+     * @return
+     */
+    public ServiceInstanceSnapshot with(ServiceInstance serviceInstance) {
+        List<ServiceInstance> list = new ArrayList<>(instances.length + 1);
+        for (ServiceInstance instance : instances) {
+            if (!instance.equals(serviceInstance)) {
+                list.add(instance);
+            }
+        }
+        list.add(serviceInstance);
+        return new ServiceInstanceSnapshot(list);
+    }
+
+    /**
+     * 基于当前快照，删除一个实例，返回新快照
+     *
+     * @param serviceInstanceId
+     * @return
+     */
+    public ServiceInstanceSnapshot without(String serviceInstanceId) {
+        List<ServiceInstance> list = new ArrayList<>(instances.length);
+        for (ServiceInstance instance : instances) {
+            if (!Objects.equals(instance.getServiceInstanceId(), serviceInstanceId)) {
+                list.add(instance);
+            }
+        }
+        return new ServiceInstanceSnapshot(list);
+    }
+}
@@ -26,8 +26,18 @@ public interface FilterConst {
 
     String LOAD_BALANCE_STRATEGY_RANDOM = "Random";
     String LOAD_BALANCE_STRATEGY_ROUND_ROBIN = "RoundRobin";
+    String LOAD_BALANCE_STRATEGY_WEIGHTED_ROUND_ROBIN = "WeightedRoundRobin";
+    String LOAD_BALANCE_STRATEGY_P2C = "P2C";
+    String LOAD_BALANCE_STRATEGY_CONSISTENT_HASH = "ConsistentHash";
     String LOAD_BALANCE_KEY = "load_balance";
 
+    //一致性哈希的key来源：ip（默认）/ header:名称 / query:名称 / cookie:名称
+    String LOAD_BALANCE_HASH_KEY = "hash_key";
+    String LOAD_BALANCE_HASH_KEY_IP = "ip";
+    String LOAD_BALANCE_HASH_KEY_HEADER = "header:";
+    String LOAD_BALANCE_HASH_KEY_QUERY = "query:";
+    String LOAD_BALANCE_HASH_KEY_COOKIE = "cookie:";
+
     String ROUTER_FILTER_ID = "router_filter";
     String ROUTER_FILTER_NAME = "router_filter";
     int ROUTER_BALANCE_FILTER_ORDER = Integer.MAX_VALUE-1;
@@ -36,12 +46,43 @@ public interface FilterConst {
     String FLOW_CTL_FILTER_NAME = "flow_ctl_filter";
     int FLOW_CTL_FILTER_ORDER = 50;
 
+    //自适应并发限制，在负载均衡之后执行，同时限制服务和选中实例的并发请求数
+    String CONCURRENCY_LIMIT_FILTER_ID = "concurrency_limit_filter";
+    String CONCURRENCY_LIMIT_FILTER_NAME = "concurrency_limit_filter";
+    int CONCURRENCY_LIMIT_FILTER_ORDER = 200;
+
     String FLOW_CTL_TYPE_PATH = "path";
     String FLOW_CTL_TYPE_SERVICE = "service";
+    //按客户端限流，value为客户端标识的来源：ip（默认）/ user / header:名称
+    String FLOW_CTL_TYPE_CLIENT = "client";
+    String FLOW_CTL_CLIENT_KEY_IP = "ip";
+    String FLOW_CTL_CLIENT_KEY_USER = "user";
+    String FLOW_CTL_CLIENT_KEY_HEADER = "header:";
 
     String FLOW_CTL_LIMIT_DURATION = "duration";
     String FLOW_CTL_LIMIT_PERMITS = "permits";
+    //单机限流的桶容量（允许的突发请求数），不配置时为一秒的令牌数
+    String FLOW_CTL_LIMIT_BURST = "burst";
+    //单机限流的分段数，不配置时不分段
+    String FLOW_CTL_LIMIT_STRIPES = "stripes";
+    //分布式限流每次从redis租用的令牌数，不配置时每个请求都访问redis
+    String FLOW_CTL_LIMIT_LEASE = "lease";
+    //分布式限流在redis慢或者不可用时的降级方式：local按单机限流（默认），allow全部放行，deny全部拒绝
+    String FLOW_CTL_LIMIT_FALLBACK = "fallback";
+    String FLOW_CTL_FALLBACK_LOCAL = "local";
+    String FLOW_CTL_FALLBACK_ALLOW = "allow";
+    String FLOW_CTL_FALLBACK_DENY = "deny";
+    //分布式限流的网关节点数，降级为单机限流时每个节点按 速率/节点数 限流，不配置时为1
+    String FLOW_CTL_LIMIT_NODES = "nodes";
 
     String FLOW_CTL_MODEL_DISRTIBUTED = "distributed";
     String FLOW_CTL_MODEL_SINGLETON = "Singleton";
+    //分布式限流：GCRA，按固定间隔放行请求，允许burst个突发，没有窗口边界
+    String FLOW_CTL_MODEL_GCRA = "gcra";
+    //分布式限流：滑动窗口计数，上一个窗口的计数按剩余时间加权
+    String FLOW_CTL_MODEL_SLIDING_WINDOW = "sliding-window";
+    //不同模型在redis中的值类型不同，key按模型加前缀，切换模型后不会读到旧模型的key；固定窗口沿用原来的key
+    String FLOW_CTL_REDIS_KEY_PREFIX_GCRA = "gcra:";
+    String FLOW_CTL_REDIS_KEY_PREFIX_SLIDING_WINDOW = "sw:";
+    String FLOW_CTL_REDIS_KEY_PREFIX_LEASE = "lease:";
 }
@@ -13,4 +13,20 @@ public interface GatewayConst {
     Integer DEFAULT_WEIGHT = 100;
 
     String BUFFER_TYPE_PARALLEL = "parallel";
+
+    //每个netty事件循环一个单生产者的队列
+    String BUFFER_TYPE_SHARDED = "sharded";
+
+    //不使用队列，过滤器链条直接在事件循环中执行，阻塞的过滤器交给单独的线程池
+    String BUFFER_TYPE_INLINE = "inline";
+
+    //请求优先级：过载时先丢弃低优先级的请求，critical的请求不会被准入控制丢弃
+    //请求头只能降低规则配置的优先级，不能提高
+    String PRIORITY_HEADER = "x-gateway-priority";
+
+    int PRIORITY_LOW = 0;
+
+    int PRIORITY_NORMAL = 1;
+
+    int PRIORITY_CRITICAL = 2;
 }
\ No newline at end of file
@@ -31,6 +31,9 @@ public enum ResponseCode {
     DUBBO_REQUEST_ERROR(HttpResponseStatus.INTERNAL_SERVER_ERROR, 10028, "服务请求异常"),
     DUBBO_RESPONSE_ERROR(HttpResponseStatus.INTERNAL_SERVER_ERROR, 10029, "服务返回异常"),
     VERIFICATION_FAILED(HttpResponseStatus.BAD_REQUEST,10030, "请求参数校验失败"),
+    FLOW_CTL_LIMITED(HttpResponseStatus.TOO_MANY_REQUESTS, 10040, "请求过于频繁，请稍后重试"),
+    CONCURRENCY_LIMITED(HttpResponseStatus.SERVICE_UNAVAILABLE, 10041, "下游服务繁忙，请稍后重试"),
+    GATEWAY_OVERLOADED(HttpResponseStatus.SERVICE_UNAVAILABLE, 10042, "网关繁忙，请稍后重试"),
     BLACKLIST(HttpResponseStatus.FORBIDDEN,10004, "请求IP在黑名单"),
     WHITELIST(HttpResponseStatus.FORBIDDEN,10005, "请求IP不在白名单")
 
@@ -0,0 +1,27 @@
+package org.paul.common.exception;
+
+import org.paul.common.enums.ResponseCode;
+
+/**
+ * 请求被限流，携带建议客户端重试的等待时间
+ */
+public class FlowCtlException extends BaseException {
+
+    private static final long serialVersionUID = 2938741802347562910L;
+
+    //建议多久之后重试（毫秒），0表示未知
+    private final long retryAfterMillis;
+
+    public FlowCtlException() {
+        this(0);
+    }
+
+    public FlowCtlException(long retryAfterMillis) {
+        super(ResponseCode.FLOW_CTL_LIMITED.getMessage(), ResponseCode.FLOW_CTL_LIMITED);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,80 @@
+package org.paul.common.config;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * 路由表快照：精确路径优先于前缀、按服务隔离、快照不可变
+ */
+public class RouteTableTest {
+
+    private static Rule rule(String id, String serviceId, String prefix, String... paths) {
+        return new Rule(id, id, "http", 1, serviceId, prefix, paths.length == 0 ? null : Arrays.asList(paths), null);
+    }
+
+    @Test
+    public void exactPathBeatsPrefix() {
+        Rule exact = rule("exact", "http-demo", "/other", "/api/user/info");
+        Rule prefix = rule("prefix", "http-demo", "/api");
+        RouteTable table = RouteTable.build(Arrays.asList(exact, prefix), 1);
+        assertSame(exact, table.findRule("http-demo", "/api/user/info"));
+        assertSame(prefix, table.findRule("http-demo", "/api/user/list"));
+        assertSame(exact, table.findRule("http-demo", "/other/1"));
+    }
+
+    @Test
+    public void rulesIsolatedByService() {
+        Rule demo = rule("demo", "http-demo", "/api", "/api/ping");
+        RouteTable table = RouteTable.build(Collections.singletonList(demo), 1);
+        assertNull(table.findRule("user-service", "/api/ping"));
+        assertNull(table.findRule("user-service", "/api/user"));
+        assertNull(table.getRuleByServiceId("user-service"));
+        assertSame(demo, table.getRuleByPath("http-demo./api/ping"));
+    }
+
+    @Test
+    public void indexesBuiltFromRules() {
+        Rule a = rule("a", "http-demo", "/a");
+        Rule b = rule("b", "http-demo", "/b");
+        RouteTable table = RouteTable.build(Arrays.asList(a, b), 7);
+        assertEquals(7, table.getVersion());
+        assertSame(a, table.getRule("a"));
+        assertEquals(2, table.getRuleByServiceId("http-demo").size());
+        assertSame(b, table.getRuleByPrefix("http-demo", "/b/1"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsImmutable() {
+        RouteTable table = RouteTable.build(Collections.singletonList(rule("a", "http-demo", "/a")), 1);
+        table.getRuleMap().put("b", rule("b", "http-demo", "/b"));
+    }
+
+    @Test
+    public void emptyTableFindsNothing() {
+        assertNull(RouteTable.EMPTY.findRule("http-demo", "/api"));
+        assertEquals(0, RouteTable.EMPTY.getVersion());
+    }
+
+    @Test
+    public void dynamicConfigManagerPublishesNewSnapshot() {
+        DynamicConfigManager manager = DynamicConfigManager.getInstance();
+        RouteTable before = manager.getRouteTable();
+        Rule rule = rule("route-table-test", "route-table-test", "/route");
+        manager.putRule(rule.getId(), rule);
+        try {
+            RouteTable after = manager.getRouteTable();
+            assertNotSame(before, after);
+            assertEquals(before.getVersion() + 1, after.getVersion());
+            assertSame(rule, after.findRule("route-table-test", "/route/1"));
+            //旧快照不受影响
+            assertNull(before.findRule("route-table-test", "/route/1"));
+        } finally {
+            manager.removeRule(rule.getId());
+        }
+        assertNull(manager.getRouteTable().findRule("route-table-test", "/route/1"));
+    }
+}
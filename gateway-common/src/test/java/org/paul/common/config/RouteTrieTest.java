@@ -0,0 +1,92 @@
+package org.paul.common.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 路由前缀树：最长前缀匹配、节点拆分、同一前缀下规则的优先级
+ */
+public class RouteTrieTest {
+
+    private static Rule rule(String id, Integer order, String prefix) {
+        return new Rule(id, id, "http", order, "http-demo", prefix, null, null);
+    }
+
+    private static RouteTrie trie(Rule... rules) {
+        RouteTrie trie = new RouteTrie();
+        for (Rule rule : rules) {
+            trie.insert(rule);
+        }
+        return trie;
+    }
+
+    @Test
+    public void longestPrefixWins() {
+        Rule api = rule("api", 1, "/api");
+        Rule user = rule("user", 1, "/api/user");
+        RouteTrie trie = trie(api, user);
+        assertSame(user, trie.match("/api/user/1"));
+        assertSame(api, trie.match("/api/order/1"));
+        assertNull(trie.match("/other"));
+    }
+
+    @Test
+    public void insertionOrderDoesNotMatter() {
+        //先插入长前缀，再插入共享部分前缀的规则，节点被拆分
+        Rule user = rule("user", 1, "/api/user");
+        Rule order = rule("order", 1, "/api/order");
+        Rule api = rule("api", 1, "/api");
+        RouteTrie trie = trie(user, order, api);
+        assertSame(user, trie.match("/api/user/1"));
+        assertSame(order, trie.match("/api/order/1"));
+        assertSame(api, trie.match("/api/pay"));
+        assertSame(api, trie.match("/api"));
+    }
+
+    @Test
+    public void partialLabelDoesNotMatch() {
+        RouteTrie trie = trie(rule("user", 1, "/api/user"));
+        assertNull(trie.match("/api/us"));
+        assertNull(trie.match("/api"));
+    }
+
+    @Test
+    public void emptyPrefixMatchesEverything() {
+        Rule fallback = rule("fallback", 1, "");
+        Rule api = rule("api", 1, "/api");
+        RouteTrie trie = trie(fallback, api);
+        assertSame(api, trie.match("/api/user"));
+        assertSame(fallback, trie.match("/other"));
+    }
+
+    @Test
+    public void nullPrefixIgnored() {
+        RouteTrie trie = trie(rule("exact", 1, null));
+        assertNull(trie.match("/api"));
+    }
+
+    @Test
+    public void samePrefixLowestOrderWins() {
+        Rule second = rule("a", 2, "/api");
+        Rule first = rule("b", 1, "/api");
+        assertSame(first, trie(second, first).match("/api/user"));
+        assertSame(first, trie(first, second).match("/api/user"));
+    }
+
+    @Test
+    public void samePrefixMissingOrderLast() {
+        Rule unordered = rule("a", null, "/api");
+        Rule ordered = rule("b", 10, "/api");
+        assertSame(ordered, trie(unordered, ordered).match("/api/user"));
+        assertSame(ordered, trie(ordered, unordered).match("/api/user"));
+    }
+
+    @Test
+    public void samePrefixSameOrderById() {
+        Rule a = rule("a", 1, "/api");
+        Rule b = rule("b", 1, "/api");
+        assertSame(a, trie(b, a).match("/api/user"));
+        assertSame(a, trie(a, b).match("/api/user"));
+    }
+}
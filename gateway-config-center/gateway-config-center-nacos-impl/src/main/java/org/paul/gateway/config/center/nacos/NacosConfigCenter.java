@@ -42,8 +42,8 @@ public class NacosConfigCenter implements ConfigCenter {
             String config = configService.getConfig(DATA_ID, env, 5000);
             log.info("config from nacos{}", config);
 
-            //转成JSON数组后，再转为rule对象
-            List<Rule> rules = JSON.parseObject(config).getJSONArray("rules").toJavaList(Rule.class);
+            //转成JSON数组后，再转为rule对象，启动时规则有错误直接失败
+            List<Rule> rules = parseRules(config);
             rulesChangeListener.onRulesChanged(rules);
 
             // 监听变化
@@ -57,7 +57,14 @@ public class NacosConfigCenter implements ConfigCenter {
                 public void receiveConfigInfo(String configInfo) {
                     log.info("config from nacos{}", configInfo);
 
-                    List<Rule> rules = JSON.parseObject(configInfo).getJSONArray("rules").toJavaList(Rule.class);
+                    //推送的规则有错误时丢弃这次推送，继续使用当前的规则
+                    List<Rule> rules;
+                    try {
+                        rules = parseRules(configInfo);
+                    } catch (Exception e) {
+                        log.error("invalid rules from nacos, keep current rules", e);
+                        return;
+                    }
                     rulesChangeListener.onRulesChanged(rules);
                 }
             });
@@ -65,4 +72,18 @@ public class NacosConfigCenter implements ConfigCenter {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * 解析规则，并校验、编译每个规则的过滤器和限流配置，请求处理时不再解析JSON
+     *
+     * @param config
+     * @return
+     */
+    private List<Rule> parseRules(String config) {
+        List<Rule> rules = JSON.parseObject(config).getJSONArray("rules").toJavaList(Rule.class);
+        for (Rule rule : rules) {
+            rule.compile();
+        }
+        return rules;
+    }
 }
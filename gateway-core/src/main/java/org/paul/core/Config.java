@@ -31,6 +31,9 @@ public class Config {
     // 因为接收http请求，http报文大小有限制
     private int httpMaxContentLength = 1024 * 1024 * 64;
 
+    // 流式转发时，每个请求最多在网关中暂存的请求体分块数，超过后关闭autoRead，由TCP进行反压
+    private int httpStreamingMaxPendingChunks = 16;
+
     // 单双异步的配置,默认单异步
     private boolean whenComplete = true;
 
@@ -52,7 +55,98 @@ public class Config {
     //	客户端空闲连接超时时间, 默认60秒
     private int httpPooledConnectionIdleTimeout = 60 * 1000;
 
-    //缓存类型
+    // 被动异常检测：连续失败多少次后摘除实例
+    private int outlierConsecutiveErrors = 5;
+
+    // 被动异常检测：统计窗口内失败率达到多少后摘除实例
+    private double outlierErrorRateThreshold = 0.5;
+
+    // 被动异常检测：统计窗口内至少多少个请求才计算失败率
+    private int outlierMinRequests = 20;
+
+    // 被动异常检测：统计窗口长度
+    private int outlierIntervalMillis = 10 * 1000;
+
+    // 被动异常检测：第一次摘除的时间，之后每次摘除时间翻倍
+    private int outlierBaseEjectionMillis = 30 * 1000;
+
+    // 被动异常检测：最长摘除时间
+    private int outlierMaxEjectionMillis = 5 * 60 * 1000;
+
+    // 被动异常检测：一个服务最多摘除的实例比例（百分比），防止全部摘除
+    private int outlierMaxEjectionPercent = 50;
+
+    // 负载均衡预热：新注册的实例在这段时间内权重从最小比例线性增长到完整权重，0表示关闭
+    private int loadBalanceWarmupMillis = 60 * 1000;
+
+    // 负载均衡预热：刚注册时的权重比例（百分比）
+    private int loadBalanceWarmupMinPercent = 10;
+
+    // 分布式限流租约：访问redis超过这个时间认为redis变慢，降级处理
+    private int flowCtlRedisTimeoutMillis = 50;
+
+    // 分布式限流租约：redis慢或者不可用后，多久再尝试访问redis
+    private int flowCtlRedisRetryMillis = 1000;
+
+    // 过载保护：是否开启入口的准入控制，过载时按优先级提前丢弃请求，默认关闭
+    private boolean admissionEnabled = false;
+
+    // 过载保护：队列占用比例达到多少视为过载
+    private double admissionRingOccupancy = 0.5d;
+
+    // 过载保护：请求在队列中的平均等待时间达到多少毫秒视为过载
+    private int admissionQueueWaitMillis = 50;
+
+    // 过载保护：netty事件循环的延迟达到多少毫秒视为过载
+    private int admissionEventLoopLagMillis = 50;
+
+    // 自适应并发限制：初始的并发数上限
+    private int concurrencyLimitInitial = 20;
+
+    // 自适应并发限制：并发数上限的最小值
+    private int concurrencyLimitMin = 4;
+
+    // 自适应并发限制：并发数上限的最大值
+    private int concurrencyLimitMax = 1000;
+
+    // 自适应并发限制：当前延迟超过基准延迟的多少倍才开始降低上限
+    private double concurrencyLimitTolerance = 1.5d;
+
+    // 自适应并发限制：每个采样窗口的长度
+    private int concurrencyLimitWindowMillis = 100;
+
+    // 自适应并发限制：一个窗口内超时和连接异常的比例达到多少时回退上限
+    private double concurrencyLimitDropRatio = 0.1d;
+
+    // 按客户端限流：count-min sketch每行的计数器个数
+    private int flowCtlSketchWidth = 2048;
+
+    // 按客户端限流：count-min sketch的行数（哈希函数个数）
+    private int flowCtlSketchDepth = 4;
+
+    // 按客户端限流：精确计数的重度客户端个数
+    private int flowCtlHeavyHitters = 128;
+
+    // 主动健康检查：是否开启
+    private boolean healthCheckEnabled = false;
+
+    // 主动健康检查：探测的路径
+    private String healthCheckPath = "/http-server/ping";
+
+    // 主动健康检查：探测间隔
+    private int healthCheckIntervalMillis = 5 * 1000;
+
+    // 主动健康检查：探测超时时间
+    private int healthCheckTimeoutMillis = 2 * 1000;
+
+    // 主动健康检查：连续失败多少次标记为不健康
+    private int healthCheckUnhealthyThreshold = 2;
+
+    // 主动健康检查：连续成功多少次恢复为健康
+    private int healthCheckHealthyThreshold = 2;
+
+    //缓存类型：parallel 所有事件循环共用一个多生产者队列；sharded 每个事件循环一个单生产者队列；
+    //inline 不使用队列，过滤器链条在事件循环中执行，带准入控制；其他值使用默认的串行处理类
     private String bufferType = "parallel1";
 
     //定义队列大小
@@ -61,6 +155,21 @@ public class Config {
     //线程数
     private int processThreadNum = Runtime.getRuntime().availableProcessors()/2;
 
+    //批量模式：每个处理线程按连接分片，一次处理一批请求，不再竞争同一个序号
+    private boolean bufferBatch = false;
+
+    //执行阻塞过滤器的线程数
+    private int blockingFilterThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    //执行阻塞过滤器的队列长度，满了以后返回503
+    private int blockingFilterQueueSize = 1024;
+
+    //队列满时是否暂停读取对应的channel（背压），关闭时队列满了非critical的请求直接返回503
+    private boolean bufferBackpressure = false;
+
+    //背压模式下每个channel最多暂存的请求数，超过时返回503
+    private int bufferOverflowPerChannel = 16;
+
     //等待策略名称
     private String waitStrategy = "blocking";
 
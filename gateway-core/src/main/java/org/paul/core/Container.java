@@ -1,13 +1,21 @@
 package org.paul.core;
 
 import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.DynamicConfigManager;
+import org.paul.common.config.ServiceInstance;
+import org.paul.core.filter.concurrency.GradientConcurrencyLimiter;
+import org.paul.core.filter.loadbalance.ServiceInstanceStats;
+import org.paul.core.health.HealthChecker;
 import org.paul.core.netty.NettyHttpClient;
 import org.paul.core.netty.NettyHttpServer;
 import org.paul.core.netty.processor.DisruptorNettyProcessor;
+import org.paul.core.netty.processor.InlineNettyProcessor;
 import org.paul.core.netty.processor.NettyCoreProcessor;
 import org.paul.core.netty.processor.NettyProcessor;
 
+import static org.paul.common.constants.GatewayConst.BUFFER_TYPE_INLINE;
 import static org.paul.common.constants.GatewayConst.BUFFER_TYPE_PARALLEL;
+import static org.paul.common.constants.GatewayConst.BUFFER_TYPE_SHARDED;
 
 /**
  * 目的：整合之前的netty容器，比如接收http请求的NettyHttpServer，转发请求的NettyHttpClient，和两者之间的核心处理逻辑NettyCoreProcessor
@@ -29,6 +37,9 @@ public class Container implements LifeCycle{
     //核心逻辑，处理转发
     private NettyProcessor nettyProcessor;
 
+    //主动健康检查
+    private HealthChecker healthChecker;
+
     public Container(Config config) {
         this.config = config;
         init();
@@ -37,28 +48,49 @@ public class Container implements LifeCycle{
     public void init() {
         //根据不同的配置使用不同的处理类
         NettyCoreProcessor nettyCoreProcessor = new NettyCoreProcessor();
-        if(config.getBufferType().equals(BUFFER_TYPE_PARALLEL)){
+        if(config.getBufferType().equals(BUFFER_TYPE_PARALLEL) || config.getBufferType().equals(BUFFER_TYPE_SHARDED)){
             this.nettyProcessor = new DisruptorNettyProcessor(config, nettyCoreProcessor);
+        }else if(config.getBufferType().equals(BUFFER_TYPE_INLINE)){
+            //inline：在事件循环中直接执行过滤器链条，带准入控制，阻塞的过滤器由链条交给BlockingFilterExecutor
+            this.nettyProcessor = new InlineNettyProcessor(config, nettyCoreProcessor);
         }else{
-            //如果为串行处理，则使用原来的processor
+            //默认：串行的核心处理类，不做准入控制
             this.nettyProcessor = nettyCoreProcessor;
         }
 
         this.nettyHttpServer = new NettyHttpServer(config, nettyProcessor);
 
         this.nettyHttpClient = new NettyHttpClient(config, nettyHttpServer.getEventLoopGroupWorker());
+
+        this.healthChecker = new HealthChecker(config);
+
+        //实例下线后清理按实例保存的状态
+        DynamicConfigManager.getInstance().addInstanceRemovedListener(this::onInstanceRemoved);
+    }
+
+    private void onInstanceRemoved(ServiceInstance serviceInstance) {
+        healthChecker.onInstanceRemoved(serviceInstance);
+        ServiceInstanceStats.remove(serviceInstance);
+        GradientConcurrencyLimiter.removeInstance(serviceInstance.getServiceInstanceId());
     }
 
     @Override
     public void start() {
         nettyProcessor.start();
         nettyHttpServer.start();
+        if (nettyProcessor.getAdmissionController() != null) {
+            //探测处理网络请求的事件循环的延迟，作为准入控制的过载信号
+            nettyProcessor.getAdmissionController().watchEventLoops(nettyHttpServer.getEventLoopGroupWorker());
+        }
         nettyHttpClient.start();
+        //依赖nettyHttpClient初始化好的AsyncHttpHelper
+        healthChecker.start();
         log.info("api gateway started successfully");
     }
 
     @Override
     public void shutdown() {
+        healthChecker.shutdown();
         nettyProcessor.shutDown();
         nettyHttpServer.shutdown();
         nettyHttpClient.shutdown();
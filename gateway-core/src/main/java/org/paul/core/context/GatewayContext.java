@@ -6,9 +6,13 @@ import io.netty.util.ReferenceCountUtil;
 import lombok.Getter;
 import lombok.Setter;
 import org.paul.common.utils.AssertUtil;
+import org.paul.core.filter.concurrency.ConcurrencyPermit;
 import org.paul.core.response.GatewayResponse;
 import org.paul.core.request.GatewayRequest;
 import org.paul.common.config.Rule;
+import org.paul.common.config.ServiceInstance;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @PROJECT_NAME: api-gateway
@@ -32,6 +36,19 @@ public class GatewayContext extends BaseContext {
     @Setter
     private boolean gray;
 
+    //负载均衡选中的下游实例
+    @Getter
+    @Setter
+    private ServiceInstance serviceInstance;
+
+    //并发限制过滤器占用的名额，请求资源释放时归还
+    @Getter
+    @Setter
+    private ConcurrencyPermit concurrencyPermit;
+
+    //过滤器挂起过滤器链条时等待的异步结果，链条在结果返回后从下一个过滤器继续执行
+    private CompletableFuture<?> suspendFuture;
+
     //普罗米修斯工具包中提供了时间采集指标的相关类
     @Getter
     @Setter
@@ -127,6 +144,38 @@ public class GatewayContext extends BaseContext {
             // 释放原始请求对象，使用netty自带的工具类
             ReferenceCountUtil.release(request.getFullHttpRequest());
         }
+        releaseConcurrencyPermit();
+    }
+
+    /**
+     * 归还并发名额，可以重复调用
+     */
+    public void releaseConcurrencyPermit() {
+        ConcurrencyPermit permit = concurrencyPermit;
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * 挂起过滤器链条：当前过滤器返回后，链条不再同步执行后面的过滤器，等future完成后在channel的eventLoop中继续
+     * future异常结束时，按过滤器抛出异常处理
+     *
+     * @param future
+     */
+    public void suspendUntil(CompletableFuture<?> future) {
+        this.suspendFuture = future;
+    }
+
+    /**
+     * 取出并清除挂起时等待的异步结果，由过滤器链条调用
+     *
+     * @return 没有挂起时返回null
+     */
+    public CompletableFuture<?> takeSuspendFuture() {
+        CompletableFuture<?> future = suspendFuture;
+        suspendFuture = null;
+        return future;
     }
 
     // 获取原始请求对象
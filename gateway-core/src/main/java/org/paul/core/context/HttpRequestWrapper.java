@@ -10,4 +10,6 @@ public class HttpRequestWrapper {
     private FullHttpRequest request;
     // ctx:ChannelHandlerContext
     private ChannelHandlerContext ctx;
+    // 放入队列的时间，用于统计请求在队列中的等待时间
+    private long enqueueNanos;
 }
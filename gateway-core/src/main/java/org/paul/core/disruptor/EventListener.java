@@ -1,5 +1,7 @@
 package org.paul.core.disruptor;
 
+import java.util.List;
+
 /**
  * 监听器的接口
  */
@@ -10,4 +12,20 @@ public interface EventListener<E> {
 
     //异常处理，sequence是RingBuffer中的次序
     void onException(Throwable ex, long sequence, E event);
+
+    /**
+     * 批量模式下，消费者一次取到的一批事件（同一个分片），在这一批的末尾调用
+     * 可以覆盖这个方法，把统计、刷新之类的工作分摊到整批事件上；默认逐个调用onEvent，单个事件的异常交给onException
+     *
+     * @param events 只在本次调用期间有效，调用结束后会被清空复用
+     */
+    default void onBatch(List<E> events) {
+        for (E event : events) {
+            try {
+                onEvent(event);
+            } catch (Throwable t) {
+                onException(t, -1, event);
+            }
+        }
+    }
 }
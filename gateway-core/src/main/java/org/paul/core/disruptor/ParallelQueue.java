@@ -20,6 +20,18 @@ public interface ParallelQueue<E> {
     boolean tryAdd(E event);
     boolean tryAdd(E... event);
 
+    /**
+     * 队列的容量
+     * @return
+     */
+    int capacity();
+
+    /**
+     * 队列剩余的空位数
+     * @return
+     */
+    long remainingCapacity();
+
     /**
      * 启动
      */
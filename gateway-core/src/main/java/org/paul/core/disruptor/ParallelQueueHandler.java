@@ -5,14 +5,29 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.*;
 import com.lmax.disruptor.dsl.ProducerType;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
 
 /**
  * 基于Disruptor的多生产者多消费者无锁队列处理类
+ * 默认使用WorkerPool，消费者每次竞争一个序号；批量模式下每个消费者是一个BatchEventProcessor，
+ * 事件在放入时按分片函数（例如channel）分配到固定的消费者，消费者之间不竞争序号，一次处理一批同分片的事件
+ * 批量模式下每个消费者都要读取RingBuffer中的每一个序号，跳过其他分片的事件，N个消费者读取序号的次数是WorkerPool的N倍，
+ * 省掉的是消费者之间对同一个序号的CAS竞争，线程数越多读取的浪费越大，是否开启以ParallelQueueBenchmark的结果为准
  */
 public class ParallelQueueHandler<E> implements ParallelQueue<E> {
 
+    //关闭时等待已放入的事件处理完、等待消费线程退出的最长时间
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    //关闭时检查事件是否处理完的间隔
+    private static final long SHUTDOWN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     //disruptor中的缓存
     private RingBuffer<Holder> ringBuffer;
 
@@ -22,12 +37,24 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
     //workerPool是用来管理一组workerProcessor存在的，它被作为一个消费者对待
     private WorkerPool<Holder> workerPool;
 
+    //批量模式下的消费者，每个分片一个
+    private BatchEventProcessor<Holder>[] batchProcessors;
+
+    //批量模式下创建的RingBuffer，start后才对生产者可见
+    private RingBuffer<Holder> batchRingBuffer;
+
+    //批量模式下的分片函数
+    private final ToIntFunction<E> shardFunction;
+
     //自定义线程池
     private ExecutorService executorService;
 
     //参数传递类，用于向RingBuffer中放入参数的转换类
     private EventTranslatorOneArg<Holder, E> eventTranslator;
 
+    //队列大小
+    private final int bufferSize;
+
 
     //处理类的构造
     public ParallelQueueHandler(Builder<E> builder) {
@@ -38,6 +65,10 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
 
         this.eventTranslator = new HolderEventTranslator();
 
+        this.bufferSize = builder.bufferSize;
+
+        this.shardFunction = builder.shardFunction;
+
         RingBuffer<Holder> ringBuffer = RingBuffer.create(builder.producerType,
                 new HolderEventFactory(),
                 builder.bufferSize,
@@ -46,6 +77,22 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         //创建RingBuffer的屏障
         SequenceBarrier sequenceBarrier = ringBuffer.newBarrier();
 
+        if (builder.batch) {
+            //批量模式：每个分片一个BatchEventProcessor，共用同一个屏障
+            BatchEventProcessor<Holder>[] processors = new BatchEventProcessor[builder.threads];
+            Sequence[] sequences = new Sequence[builder.threads];
+            for (int i = 0; i < processors.length; i++) {
+                processors[i] = new BatchEventProcessor<>(ringBuffer, sequenceBarrier,
+                        new HolderBatchHandler(i, builder.maxBatchSize));
+                processors[i].setExceptionHandler(new HolderExceptionHandler());
+                sequences[i] = processors[i].getSequence();
+            }
+            ringBuffer.addGatingSequences(sequences);
+            this.batchProcessors = processors;
+            this.batchRingBuffer = ringBuffer;
+            return;
+        }
+
         //创建消费者组
         WorkHandler<Holder>[] workHandlers = new WorkHandler[builder.threads];
         //循环填充
@@ -116,8 +163,26 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         }
     }
 
+    @Override
+    public int capacity() {
+        return bufferSize;
+    }
+
+    @Override
+    public long remainingCapacity() {
+        RingBuffer<Holder> ringBuffer = this.ringBuffer;
+        return ringBuffer == null ? bufferSize : ringBuffer.remainingCapacity();
+    }
+
     @Override
     public void start() {
+        if (batchProcessors != null) {
+            for (BatchEventProcessor<Holder> processor : batchProcessors) {
+                executorService.execute(processor);
+            }
+            this.ringBuffer = batchRingBuffer;
+            return;
+        }
         this.ringBuffer = workerPool.start(executorService);
     }
 
@@ -131,8 +196,24 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         if(workerPool != null){
             workerPool.drainAndHalt();
         }
+        if (batchProcessors != null) {
+            //等待已经放入的事件处理完再停止，最多等待SHUTDOWN_TIMEOUT_MILLIS，超时后剩余的事件不再处理
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MILLIS);
+            while (holderRingBuffer.getMinimumGatingSequence() < holderRingBuffer.getCursor()
+                    && System.nanoTime() - deadline < 0) {
+                LockSupport.parkNanos(SHUTDOWN_POLL_NANOS);
+            }
+            for (BatchEventProcessor<Holder> processor : batchProcessors) {
+                processor.halt();
+            }
+        }
         if(executorService != null){
             executorService.shutdown();
+            try {
+                executorService.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -172,6 +253,15 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         //事件监听器
         private EventListener<E> eventListener;
 
+        //是否使用批量模式
+        private boolean batch = false;
+
+        //批量模式下一批最多的事件数，超过时提前交给监听器
+        private int maxBatchSize = 64;
+
+        //批量模式下的分片函数，同一个分片的事件由同一个消费者按顺序处理
+        private ToIntFunction<E> shardFunction = Object::hashCode;
+
 
         //建造者模式：返回Builder，方便链式调用，最后再build，建立当前对象
         //要求对参数进行校验
@@ -211,6 +301,44 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
             return this;
         }
 
+        public Builder<E> setBatch(boolean batch) {
+            this.batch = batch;
+            return this;
+        }
+
+        public Builder<E> setMaxBatchSize(int maxBatchSize) {
+            Preconditions.checkArgument(maxBatchSize > 0);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder<E> setShardFunction(ToIntFunction<E> shardFunction) {
+            Preconditions.checkNotNull(shardFunction);
+            this.shardFunction = shardFunction;
+            return this;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        /**
+         * 复制当前的参数，修改副本不影响原来的Builder
+         */
+        public Builder<E> copy() {
+            Builder<E> copy = new Builder<>();
+            copy.producerType = producerType;
+            copy.bufferSize = bufferSize;
+            copy.threads = threads;
+            copy.namePrefix = namePrefix;
+            copy.waitStrategy = waitStrategy;
+            copy.eventListener = eventListener;
+            copy.batch = batch;
+            copy.maxBatchSize = maxBatchSize;
+            copy.shardFunction = shardFunction;
+            return copy;
+        }
+
         public ParallelQueueHandler<E> build() {
             return new ParallelQueueHandler<E>(this);
         }
@@ -221,6 +349,9 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         //放入RingBuffer的事件（消息)
         private E event;
 
+        //批量模式下事件所属的分片
+        private int shard;
+
         public void setEvent(E event) {
             this.event = event;
         }
@@ -237,6 +368,9 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         @Override
         public void translateTo(Holder holder, long l, E e) {
             holder.setEvent(e);
+            if (batchProcessors != null) {
+                holder.shard = (shardFunction.applyAsInt(e) & Integer.MAX_VALUE) % batchProcessors.length;
+            }
         }
     }
 
@@ -257,6 +391,37 @@ public class ParallelQueueHandler<E> implements ParallelQueue<E> {
         }
     }
 
+    //批量模式的消费者：读取每一个序号，只处理自己分片的事件，攒到一批的末尾再交给监听器
+    private class HolderBatchHandler implements EventHandler<Holder> {
+
+        private final int shard;
+
+        private final int maxBatchSize;
+
+        private final List<E> batch;
+
+        private HolderBatchHandler(int shard, int maxBatchSize) {
+            this.shard = shard;
+            this.maxBatchSize = maxBatchSize;
+            this.batch = new ArrayList<>(maxBatchSize);
+        }
+
+        @Override
+        public void onEvent(Holder holder, long sequence, boolean endOfBatch) throws Exception {
+            if (holder.shard == shard) {
+                batch.add(holder.event);
+                holder.setEvent(null);
+            }
+            if ((endOfBatch || batch.size() >= maxBatchSize) && !batch.isEmpty()) {
+                try {
+                    eventListener.onBatch(batch);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
     private class HolderExceptionHandler implements ExceptionHandler<Holder> {
         @Override
         public void handleEventException(Throwable throwable, long l, Holder holder) {
@@ -0,0 +1,171 @@
+package org.paul.core.disruptor;
+
+import com.lmax.disruptor.dsl.ProducerType;
+import io.netty.channel.EventLoop;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 按生产者事件循环分片的队列：每个netty的事件循环独占一个单生产者的RingBuffer和自己的消费者
+ * 单生产者的RingBuffer放入事件时不需要CAS竞争游标，同一个连接的请求总是由同一个事件循环放入同一个分片，保持顺序
+ * 分片在事件循环第一次放入事件时创建，只能在事件所属的事件循环中放入
+ */
+public class ShardedParallelQueue<E> implements ParallelQueue<E> {
+
+    //创建分片的参数，构造时复制一份，生产者类型固定为SINGLE，之后不再修改
+    private final ParallelQueueHandler.Builder<E> template;
+
+    private final String namePrefix;
+
+    //预期的分片数，即事件循环数
+    private final int shardCount;
+
+    //事件所属的事件循环
+    private final Function<E, EventLoop> eventLoopFunction;
+
+    //key为生产者事件循环
+    private final ConcurrentHashMap<EventLoop, ParallelQueueHandler<E>> shards = new ConcurrentHashMap<>();
+
+    //分片的序号，用于线程名
+    private final AtomicInteger shardIndex = new AtomicInteger();
+
+    private final EventListener<E> eventListener;
+
+    private volatile boolean started;
+
+    private volatile boolean shutdown;
+
+    /**
+     * @param builder           每个分片的参数，队列大小和线程数都是单个分片的
+     * @param shardCount        预期的分片数，用于计算总容量
+     * @param namePrefix        线程名前缀，后面加上分片的序号
+     * @param eventLoopFunction 事件所属的事件循环，事件必须在这个事件循环中放入
+     * @param eventListener     队列关闭后放入的事件交给监听器的onException
+     */
+    public ShardedParallelQueue(ParallelQueueHandler.Builder<E> builder, int shardCount, String namePrefix,
+                                Function<E, EventLoop> eventLoopFunction, EventListener<E> eventListener) {
+        this.template = builder.copy().setProducerType(ProducerType.SINGLE);
+        this.shardCount = Math.max(1, shardCount);
+        this.namePrefix = namePrefix;
+        this.eventLoopFunction = eventLoopFunction;
+        this.eventListener = eventListener;
+    }
+
+    /**
+     * 获取事件所属事件循环的分片，不在这个事件循环中、队列没有启动或者已经关闭时返回null
+     */
+    private ParallelQueueHandler<E> shard(E event) {
+        EventLoop eventLoop = eventLoopFunction.apply(event);
+        //单生产者的RingBuffer只能由一个线程放入
+        if (!eventLoop.inEventLoop()) {
+            return null;
+        }
+        ParallelQueueHandler<E> shard = shards.get(eventLoop);
+        if (shard != null) {
+            return shard;
+        }
+        if (!started || shutdown) {
+            return null;
+        }
+        synchronized (this) {
+            if (shutdown) {
+                return null;
+            }
+            shard = shards.get(eventLoop);
+            if (shard == null) {
+                shard = template.copy().setNamePrefix(namePrefix + shardIndex.getAndIncrement() + "-").build();
+                shard.start();
+                shards.put(eventLoop, shard);
+            }
+            return shard;
+        }
+    }
+
+    @Override
+    public void add(E event) {
+        ParallelQueueHandler<E> shard = shard(event);
+        if (shard == null) {
+            eventListener.onException(new IllegalStateException("ParallelQueue has been closed"), -1, event);
+            return;
+        }
+        shard.add(event);
+    }
+
+    /**
+     * 一次放入的事件必须属于同一个事件循环
+     */
+    @Override
+    public void add(E... events) {
+        if (events.length == 0) {
+            return;
+        }
+        ParallelQueueHandler<E> shard = shard(events[0]);
+        if (shard == null) {
+            for (E event : events) {
+                eventListener.onException(new IllegalStateException("ParallelQueue has been closed"), -1, event);
+            }
+            return;
+        }
+        shard.add(events);
+    }
+
+    @Override
+    public boolean tryAdd(E event) {
+        ParallelQueueHandler<E> shard = shard(event);
+        return shard != null && shard.tryAdd(event);
+    }
+
+    /**
+     * 一次放入的事件必须属于同一个事件循环
+     */
+    @Override
+    public boolean tryAdd(E... events) {
+        if (events.length == 0) {
+            return true;
+        }
+        ParallelQueueHandler<E> shard = shard(events[0]);
+        return shard != null && shard.tryAdd(events);
+    }
+
+    /**
+     * 所有分片的总容量，按预期的分片数计算，不依赖分片是否已经创建
+     */
+    @Override
+    public int capacity() {
+        return template.getBufferSize() * Math.max(shardCount, shards.size());
+    }
+
+    /**
+     * 所有分片剩余的空位数之和，还没有创建的分片按空的计算
+     */
+    @Override
+    public long remainingCapacity() {
+        long remaining = 0;
+        int created = 0;
+        for (ParallelQueueHandler<E> shard : shards.values()) {
+            remaining += shard.remainingCapacity();
+            created++;
+        }
+        return remaining + (long) template.getBufferSize() * Math.max(0, shardCount - created);
+    }
+
+    @Override
+    public void start() {
+        started = true;
+    }
+
+    @Override
+    public synchronized void shutDown() {
+        shutdown = true;
+        for (ParallelQueueHandler<E> shard : shards.values()) {
+            shard.shutDown();
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+}
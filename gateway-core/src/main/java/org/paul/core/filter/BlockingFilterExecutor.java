@@ -0,0 +1,60 @@
+package org.paul.core.filter;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.paul.core.Config;
+import org.paul.core.ConfigLoader;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行阻塞过滤器的有界线程池
+ * 过滤器链条在netty的事件循环中执行到阻塞的过滤器时，从这个过滤器开始的剩余部分交给线程池执行，事件循环不会被阻塞
+ * 线程数和队列长度都有上限，队列满时直接拒绝，由链条返回503
+ */
+public class BlockingFilterExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private BlockingFilterExecutor() {
+        Config config = ConfigLoader.getConfig();
+        int threads = Math.max(1, config.getBlockingFilterThreads());
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.getBlockingFilterQueueSize())),
+                new DefaultThreadFactory("gateway-blocking-filter", true),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static class SingletonHolder {
+        private static final BlockingFilterExecutor INSTANCE = new BlockingFilterExecutor();
+    }
+
+    public static BlockingFilterExecutor getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param task
+     * @throws RejectedExecutionException 线程和队列都满了
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 队列的占用比例，0到1
+     */
+    public double occupancy() {
+        int size = executor.getQueue().size();
+        return (double) size / (size + executor.getQueue().remainingCapacity());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
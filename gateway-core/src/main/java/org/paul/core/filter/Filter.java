@@ -23,4 +23,12 @@ public interface Filter {
         }
         return Integer.MAX_VALUE;
     };
+
+    /**
+     * 注解中声明了blocking的过滤器，当前请求执行时是否真的会阻塞线程，没有声明的过滤器不会调用
+     * 默认总是阻塞，只在部分请求上阻塞的过滤器可以按请求判断
+     */
+    default boolean isBlocking(GatewayContext ctx){
+        return true;
+    }
 }
@@ -26,4 +26,11 @@ public @interface FilterAspect {
      * @return
      */
     int order() default 0;
+
+    /**
+     * 过滤器是否可能阻塞当前线程（例如同步等待下游或redis的结果），链条编译时读取一次
+     * 阻塞的过滤器不会在netty的事件循环中执行，链条执行到这里时再调用Filter.isBlocking确认，阻塞时交给BlockingFilterExecutor
+     * @return
+     */
+    boolean blocking() default false;
 }
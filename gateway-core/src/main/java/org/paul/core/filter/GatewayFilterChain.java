@@ -1,35 +1,39 @@
 package org.paul.core.filter;
 
+import io.netty.handler.codec.http.FullHttpResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.paul.common.enums.ResponseCode;
+import org.paul.common.exception.BaseException;
+import org.paul.common.exception.ResponseException;
 import org.paul.core.context.GatewayContext;
+import org.paul.core.helper.ResponseHelper;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 过滤器链条类
+ * 链条在构建后不可变，同一个规则的所有请求共享同一个链条
+ * 过滤器可以通过GatewayContext.suspendUntil挂起链条，等异步结果返回后从下一个过滤器继续，执行位置不保存在链条中
+ * 在事件循环中执行时，阻塞的过滤器及其后面的部分交给BlockingFilterExecutor，非阻塞的链条全程在事件循环中执行
  */
 @Slf4j
 public class GatewayFilterChain {
     /**
-     * 存放过滤器的list
+     * 按order排好序的过滤器
      */
-    private List<Filter> filters = new ArrayList<>();
+    private final Filter[] filters;
 
     /**
-     * 将过滤器添加到过滤器链条种
-     *
-     * @param filter
-     * @return
+     * 和filters一一对应，过滤器是否声明为可能阻塞，编译链条时从注解中解析
      */
-    public GatewayFilterChain addFilte(Filter filter) {
-        filters.add(filter);
-        return this;
-    }
+    private final boolean[] blocking;
 
-    public GatewayFilterChain addFilterList(List<Filter> tempFilterList){
-        filters.addAll(tempFilterList);
-        return this;
+    public GatewayFilterChain(List<Filter> filters, boolean[] blocking) {
+        this.filters = filters.toArray(new Filter[0]);
+        this.blocking = blocking;
     }
 
     /**
@@ -40,19 +44,80 @@ public class GatewayFilterChain {
      */
     public GatewayContext doFilter(GatewayContext ctx) throws Exception{
         // 过滤器链条为空，不执行过滤动作，直接返回
-        if (filters.isEmpty()) {
+        if (filters.length == 0) {
             return ctx;
         }
         try {
-            for (Filter filter : filters) {
-                //遍历过滤器，每个过滤器执行对应的过滤动作
-                filter.doFilter(ctx);
-            }
+            doFilter(ctx, 0);
         } catch (Exception e) {
             log.error("执行过滤器发生异常，异常信息：{}", e.getMessage());
+            //请求资源由NettyCoreProcessor释放，这里只归还并发名额
+            ctx.releaseConcurrencyPermit();
             throw e;
         }
         return ctx;
     }
 
+    /**
+     * 从下标start开始执行过滤器，过滤器挂起链条时，注册回调后直接返回，不阻塞当前线程
+     */
+    private void doFilter(GatewayContext ctx, int start) throws Exception {
+        boolean inEventLoop = ctx.getNettyCtx().executor().inEventLoop();
+        for (int i = start; i < filters.length; i++) {
+            //在事件循环中遇到阻塞的过滤器，剩余部分交给阻塞线程池执行
+            if (inEventLoop && blocking[i] && filters[i].isBlocking(ctx)) {
+                offload(ctx, i, null);
+                return;
+            }
+            //遍历过滤器，每个过滤器执行对应的过滤动作
+            filters[i].doFilter(ctx);
+            CompletableFuture<?> future = ctx.takeSuspendFuture();
+            if (future != null) {
+                int next = i + 1;
+                //在事件循环中挂起的，回到channel的eventLoop继续，后面阻塞的过滤器会再交给阻塞线程池
+                //在队列的消费线程或阻塞线程池中挂起的，交给阻塞线程池继续，不在eventLoop中执行阻塞的过滤器
+                if (inEventLoop) {
+                    future.whenCompleteAsync((result, throwable) -> resume(ctx, next, throwable), ctx.getNettyCtx().executor());
+                } else {
+                    future.whenComplete((result, throwable) -> offload(ctx, next, throwable));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 从下标index开始的过滤器交给阻塞线程池执行，线程池满时按网关过载返回503
+     */
+    private void offload(GatewayContext ctx, int index, Throwable throwable) {
+        try {
+            BlockingFilterExecutor.getInstance().execute(() -> resume(ctx, index, throwable));
+        } catch (RejectedExecutionException e) {
+            resume(ctx, index, new ResponseException(ResponseCode.GATEWAY_OVERLOADED));
+        }
+    }
+
+    /**
+     * 挂起后继续执行，异常的处理和NettyCoreProcessor一致：释放请求并写回错误响应，长连接不关闭
+     */
+    private void resume(GatewayContext ctx, int next, Throwable throwable) {
+        try {
+            if (throwable != null) {
+                throw throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            }
+            doFilter(ctx, next);
+        } catch (Throwable t) {
+            FullHttpResponse httpResponse;
+            if (t instanceof BaseException) {
+                log.error("process error{} {}", ((BaseException) t).getCode(), t.getMessage());
+                httpResponse = ResponseHelper.getHttpResponse((BaseException) t);
+            } else {
+                log.error("执行过滤器发生异常，异常信息：{}", t.getMessage(), t);
+                httpResponse = ResponseHelper.getHttpResponse(ResponseCode.INTERNAL_ERROR);
+            }
+            ctx.releaseRequest();
+            ResponseHelper.writeResponse(ctx.getNettyCtx(), ctx.isKeepAlive(), httpResponse);
+        }
+    }
+
 }
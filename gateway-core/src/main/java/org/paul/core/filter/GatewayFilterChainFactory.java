@@ -1,7 +1,10 @@
 package org.paul.core.filter;
 
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.paul.common.config.DynamicConfigManager;
 import org.paul.common.config.Rule;
+import org.paul.common.config.RouteTable;
 import org.paul.common.constants.FilterConst;
 import org.paul.core.context.GatewayContext;
 import org.paul.core.filter.router.RouterFilter;
@@ -11,7 +14,9 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 过滤器工厂实现类
+ * 过滤器链条在规则加载时编译，请求中只按规则id查找
  */
+@Slf4j
 public class GatewayFilterChainFactory implements FilterFactory {
     //单例模式饿汉式实现，保证线程安全
     private static class SingletonInstance {
@@ -23,6 +28,18 @@ public class GatewayFilterChainFactory implements FilterFactory {
 
     public Map<String, Filter> processorFilterIdMap = new ConcurrentHashMap<>();
 
+    //过滤器的order，加载时从注解中解析一次，排序时不再反射读取注解
+    private final Map<Filter, Integer> filterOrderMap = new ConcurrentHashMap<>();
+
+    //过滤器是否声明为可能阻塞，加载时从注解中解析一次，请求中不再反射读取注解
+    private final Map<Filter, Boolean> filterBlockingMap = new ConcurrentHashMap<>();
+
+    //路由过滤器，无状态，所有链条共享一个实例
+    private final Filter routerFilter;
+
+    //编译好的过滤器链条，路由表发布时整体替换
+    private volatile ChainCache chainCache = new ChainCache(-1, Collections.emptyMap());
+
     public GatewayFilterChainFactory(){
         //加载所有的filter类，遍历filter类，放到当前工厂中的map
         ServiceLoader<Filter> serviceLoader = ServiceLoader.load(Filter.class);
@@ -37,19 +54,67 @@ public class GatewayFilterChainFactory implements FilterFactory {
                     filterId = filter.getClass().getName();
                 }
                 processorFilterIdMap.put(filterId, filter);
+                filterOrderMap.put(filter, filter.getOrder());
+                filterBlockingMap.put(filter, annotation.blocking());
             }
         });
+
+        Filter router = processorFilterIdMap.get(FilterConst.ROUTER_FILTER_ID);
+        if (router == null) {
+            router = new RouterFilter();
+            filterOrderMap.put(router, router.getOrder());
+            filterBlockingMap.put(router, router.getClass().getAnnotation(FilterAspect.class).blocking());
+        }
+        this.routerFilter = router;
+
+        //注册时先编译当前的路由表，之后每次发布新路由表前编译
+        DynamicConfigManager.getInstance().addRouteTableListener(this::compileRouteTable);
     }
 
     /**
-     * 构建过滤器链条
+     * 编译路由表中所有规则的过滤器链条
+     * @param routeTable
+     */
+    private synchronized void compileRouteTable(RouteTable routeTable) {
+        //监听器注册和发布并发时，旧版本的路由表不能覆盖新版本
+        if (routeTable.getVersion() <= chainCache.ruleVersion) {
+            return;
+        }
+        Map<String, CompiledChain> chains = new HashMap<>();
+        for (Rule rule : routeTable.getRuleMap().values()) {
+            try {
+                chains.put(rule.getId(), new CompiledChain(rule, compileFilterChain(rule)));
+            } catch (Exception e) {
+                log.error("compile filter chain error, rule {}", rule.getId(), e);
+            }
+        }
+        chainCache = new ChainCache(routeTable.getVersion(), chains);
+    }
+
+    /**
+     * 获取规则加载时编译好的过滤器链条
      * @param ctx
      * @return
      * @throws Exception
      */
     @Override
     public GatewayFilterChain buildFilterChain(GatewayContext ctx) throws Exception {
-        GatewayFilterChain gatewayFilterChain = new GatewayFilterChain();
+        Rule rule = ctx.getRule();
+        CompiledChain compiledChain = rule == null || rule.getId() == null ? null : chainCache.chains.get(rule.getId());
+        //链条必须是同一个规则对象编译出来的；请求拿到的规则不在编译好的路由表中时（新旧版本交替），临时编译，不放入缓存
+        if (compiledChain == null || compiledChain.rule != rule) {
+            return compileFilterChain(rule);
+        }
+        return compiledChain.chain;
+    }
+
+    /**
+     * 根据规则编译过滤器链条
+     * @param rule
+     * @return
+     * @throws Exception
+     */
+    private GatewayFilterChain compileFilterChain(Rule rule) throws Exception {
         List<Filter> filters = new ArrayList<>();
 
 //        filters.add(getFilterInfo(FilterConst.GRAY_FILTER_ID));
@@ -60,39 +125,60 @@ public class GatewayFilterChainFactory implements FilterFactory {
 
         //GatewayContext中的Rule定义了规则
         //Rule中有了FilterConfig的集合
-        Rule rule = ctx.getRule();
         if(rule != null){
-            //获取filterConfig的set
-            Set<Rule.FilterConfig> filterConfigs = rule.getFilterConfigs();
-            Iterator iterator = filterConfigs.iterator();
-
             //遍历filterConfigs
-            Rule.FilterConfig filterConfig;
-            while (iterator.hasNext()){
+            for (Rule.FilterConfig filterConfig : rule.getFilterConfigs()) {
                 //尝试获取过滤器配置
-                filterConfig = (Rule.FilterConfig)iterator.next();
                 if(filterConfig == null){
                     continue;
                 }
                 //根据过滤器配置获取过滤器id
                 String filterId = filterConfig.getId();
 
-                //根据过滤器id获取过滤器，并添加到过滤器链条的list中
-                if(StringUtils.isNotEmpty(filterId) && getFilterInfo(filterId) != null){
-                    Filter filter = getFilterInfo(filterId);
+                //根据过滤器id获取过滤器，并添加到过滤器链条的list中，路由过滤器最后统一添加
+                Filter filter = StringUtils.isNotEmpty(filterId) ? getFilterInfo(filterId) : null;
+                if(filter != null && filter != routerFilter){
                     filters.add(filter);
                 }
             }
         }
         //添加路由过滤器，最后一步
-        filters.add(new RouterFilter());
+        filters.add(routerFilter);
 
         //根据order对暂存的过滤器根据order进行排序
-        filters.sort(Comparator.comparingInt(Filter::getOrder));
+        filters.sort(Comparator.comparingInt(filter -> filterOrderMap.getOrDefault(filter, Integer.MAX_VALUE)));
+
+        boolean[] blocking = new boolean[filters.size()];
+        for (int i = 0; i < blocking.length; i++) {
+            blocking[i] = filterBlockingMap.getOrDefault(filters.get(i), false);
+        }
+        return new GatewayFilterChain(filters, blocking);
+    }
+
+    /**
+     * 某一规则版本下编译好的过滤器链条
+     */
+    private static class ChainCache {
+        private final long ruleVersion;
+        private final Map<String /* ruleId */, CompiledChain> chains;
+
+        private ChainCache(long ruleVersion, Map<String, CompiledChain> chains) {
+            this.ruleVersion = ruleVersion;
+            this.chains = chains;
+        }
+    }
 
-        //将所有获取到的过滤器添加到GatewayFilterChain中
-        gatewayFilterChain.addFilterList(filters);
-        return gatewayFilterChain;
+    /**
+     * 规则和它编译出的过滤器链条
+     */
+    private static class CompiledChain {
+        private final Rule rule;
+        private final GatewayFilterChain chain;
+
+        private CompiledChain(Rule rule, GatewayFilterChain chain) {
+            this.rule = rule;
+            this.chain = chain;
+        }
     }
 
     /**
@@ -0,0 +1,45 @@
+package org.paul.core.filter.concurrency;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.ServiceInstance;
+import org.paul.common.enums.ResponseCode;
+import org.paul.common.exception.ResponseException;
+import org.paul.core.context.GatewayContext;
+import org.paul.core.filter.Filter;
+import org.paul.core.filter.FilterAspect;
+
+import static org.paul.common.constants.FilterConst.*;
+
+/**
+ * 自适应并发限制过滤器
+ * 同时限制服务和负载均衡选中实例的并发请求数，上限根据下游延迟自动调整，超过上限的请求直接返回503
+ * 名额在请求最终完成、释放请求资源时归还
+ */
+@Slf4j
+@FilterAspect(id = CONCURRENCY_LIMIT_FILTER_ID,
+        name = CONCURRENCY_LIMIT_FILTER_NAME,
+        order = CONCURRENCY_LIMIT_FILTER_ORDER)
+public class ConcurrencyLimitFilter implements Filter {
+    @Override
+    public void doFilter(GatewayContext ctx) throws Exception {
+        String serviceId = ctx.getRule().getServiceId();
+        GradientConcurrencyLimiter serviceLimiter = GradientConcurrencyLimiter.getInstance(serviceId);
+        if (!serviceLimiter.tryAcquire()) {
+            log.debug("service {} concurrency limited, limit {}", serviceId, serviceLimiter.getLimit());
+            throw new ResponseException(ResponseCode.CONCURRENCY_LIMITED);
+        }
+
+        //负载均衡选中的实例单独限制，避免一个变慢的实例占满服务的名额
+        GradientConcurrencyLimiter instanceLimiter = null;
+        ServiceInstance serviceInstance = ctx.getServiceInstance();
+        if (serviceInstance != null) {
+            instanceLimiter = GradientConcurrencyLimiter.getInstance(serviceId, serviceInstance.getServiceInstanceId());
+            if (!instanceLimiter.tryAcquire()) {
+                serviceLimiter.release(0, false, false);
+                log.debug("instance {} concurrency limited, limit {}", serviceInstance.getServiceInstanceId(), instanceLimiter.getLimit());
+                throw new ResponseException(ResponseCode.CONCURRENCY_LIMITED);
+            }
+        }
+        ctx.setConcurrencyPermit(new ConcurrencyPermit(serviceLimiter, instanceLimiter));
+    }
+}
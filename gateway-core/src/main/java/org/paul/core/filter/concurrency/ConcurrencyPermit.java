@@ -0,0 +1,62 @@
+package org.paul.core.filter.concurrency;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个请求占用的服务和实例并发名额
+ * 延迟从RouterFilter发出请求开始计算，到请求最终完成、释放请求资源时结束；重试时从最后一次发出请求开始计算
+ * 重复释放只生效一次
+ */
+public class ConcurrencyPermit {
+
+    private final GradientConcurrencyLimiter serviceLimiter;
+
+    //没有选中实例时为null
+    private final GradientConcurrencyLimiter instanceLimiter;
+
+    //发出请求的时间，0表示请求还没有发出
+    private volatile long startNanos;
+
+    //下游是否超时或者连接异常
+    private volatile boolean dropped;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public ConcurrencyPermit(GradientConcurrencyLimiter serviceLimiter, GradientConcurrencyLimiter instanceLimiter) {
+        this.serviceLimiter = serviceLimiter;
+        this.instanceLimiter = instanceLimiter;
+    }
+
+    /**
+     * 向下游发出请求
+     */
+    public void onRouteStart() {
+        startNanos = System.nanoTime();
+        dropped = false;
+    }
+
+    /**
+     * 下游请求结束
+     *
+     * @param error 是否超时或者连接异常
+     */
+    public void onRouteComplete(boolean error) {
+        dropped = error;
+    }
+
+    /**
+     * 释放名额并记录延迟
+     */
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        long start = startNanos;
+        boolean sample = start != 0;
+        long rttNanos = sample ? System.nanoTime() - start : 0;
+        serviceLimiter.release(rttNanos, dropped, sample);
+        if (instanceLimiter != null) {
+            instanceLimiter.release(rttNanos, dropped, sample);
+        }
+    }
+}
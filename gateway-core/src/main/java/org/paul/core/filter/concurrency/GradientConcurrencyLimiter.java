@@ -0,0 +1,193 @@
+package org.paul.core.filter.concurrency;
+
+import org.paul.core.Config;
+import org.paul.core.ConfigLoader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限制（gradient算法）
+ * 用长期的平均延迟作为基准，当前窗口的延迟高于基准说明下游开始排队：
+ * gradient = tolerance * 基准延迟 / 当前延迟，限制在[0.5, 1]之间
+ * 新上限 = 上限 * gradient + sqrt(上限)，延迟正常时上限按sqrt(上限)缓慢增长，延迟升高时按比例下降，和旧上限平滑后生效
+ * 窗口内超时和连接异常的比例达到阈值时上限直接乘以0.9回退，个别请求失败不回退；5xx是下游应用的结果，不算排队的信号
+ * 正在处理的请求数不到上限一半时不增长，避免流量低时上限无限变大
+ * 延迟按窗口聚合，请求路径上只有原子操作，只有跨过窗口边界的线程计算新的上限
+ */
+public class GradientConcurrencyLimiter {
+
+    //新旧上限的平滑系数
+    private static final double SMOOTHING = 0.2d;
+
+    //出错时的回退比例
+    private static final double BACKOFF_RATIO = 0.9d;
+
+    //基准延迟的指数移动平均系数，按窗口更新，大约反映最近50个窗口的延迟
+    private static final double LONG_RTT_ALPHA = 0.02d;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double tolerance;
+
+    private final long windowNanos;
+
+    //窗口内失败的比例达到这个值时回退
+    private final double dropRatio;
+
+    //当前的并发数上限
+    private volatile double limit;
+
+    //正在处理的请求数
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    //基准延迟（纳秒），0表示还没有采样
+    private volatile double longRttNanos;
+
+    //当前窗口的开始时间
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    //当前窗口的延迟总和、成功的采样数、失败的采样数、最大并发数
+    private final LongAdder windowRttSum = new LongAdder();
+
+    private final LongAdder windowCount = new LongAdder();
+
+    private final LongAdder windowDrops = new LongAdder();
+
+    private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+
+    public GradientConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowMillis, double dropRatio) {
+        if (minLimit <= 0 || maxLimit < minLimit || tolerance < 1 || dropRatio <= 0) {
+            throw new IllegalArgumentException("invalid concurrency limit config");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.dropRatio = dropRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    //服务的限制，key为serviceId
+    private static ConcurrentHashMap<String, GradientConcurrencyLimiter> limiterMap = new ConcurrentHashMap<>();
+
+    //实例的限制，key为serviceId，内层key为实例id
+    private static ConcurrentHashMap<String, ConcurrentHashMap<String, GradientConcurrencyLimiter>> instanceLimiterMap = new ConcurrentHashMap<>();
+
+    /**
+     * 对外暴露获取服务的限制的方法，参数从Config读取
+     */
+    public static GradientConcurrencyLimiter getInstance(String serviceId) {
+        return limiterMap.computeIfAbsent(serviceId, k -> create());
+    }
+
+    /**
+     * 获取服务下某个实例的限制
+     */
+    public static GradientConcurrencyLimiter getInstance(String serviceId, String serviceInstanceId) {
+        return instanceLimiterMap.computeIfAbsent(serviceId, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(serviceInstanceId, k -> create());
+    }
+
+    /**
+     * 实例下线，按实例id删除每个服务下这个实例的限制，正在处理的请求仍然持有原来的对象，归还名额不受影响
+     */
+    public static void removeInstance(String serviceInstanceId) {
+        for (ConcurrentHashMap<String, GradientConcurrencyLimiter> instances : instanceLimiterMap.values()) {
+            instances.remove(serviceInstanceId);
+        }
+    }
+
+    private static GradientConcurrencyLimiter create() {
+        Config config = ConfigLoader.getConfig();
+        return new GradientConcurrencyLimiter(config.getConcurrencyLimitInitial(), config.getConcurrencyLimitMin(),
+                config.getConcurrencyLimitMax(), config.getConcurrencyLimitTolerance(), config.getConcurrencyLimitWindowMillis(),
+                config.getConcurrencyLimitDropRatio());
+    }
+
+    /**
+     * 尝试占用一个并发名额，不等待
+     *
+     * @return 是否成功，成功后必须调用release
+     */
+    public boolean tryAcquire() {
+        int max = (int) limit;
+        while (true) {
+            int current = inFlight.get();
+            if (current >= max) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                windowMaxInFlight.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放并发名额
+     *
+     * @param rttNanos 从发出请求到请求完成的时间
+     * @param dropped  是否超时或者出错
+     * @param sample   是否计入延迟采样，请求没有发出时为false
+     */
+    public void release(long rttNanos, boolean dropped, boolean sample) {
+        inFlight.decrementAndGet();
+        if (!sample) {
+            return;
+        }
+        if (dropped) {
+            windowDrops.increment();
+        } else {
+            windowRttSum.add(rttNanos);
+            windowCount.increment();
+        }
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            update(windowRttSum.sumThenReset(), windowCount.sumThenReset(),
+                    windowMaxInFlight.getAndSet(inFlight.get()), windowDrops.sumThenReset());
+        }
+    }
+
+    /**
+     * 按一个窗口的采样计算新的上限，同一时间只有一个线程执行
+     */
+    private void update(long rttSum, long count, int maxInFlight, long drops) {
+        double current = limit;
+        double next;
+        if (drops > 0 && drops >= (count + drops) * dropRatio) {
+            next = current * BACKOFF_RATIO;
+        } else {
+            if (count == 0) {
+                return;
+            }
+            double shortRtt = (double) rttSum / count;
+            double longRtt = longRttNanos == 0 ? shortRtt : longRttNanos * (1 - LONG_RTT_ALPHA) + shortRtt * LONG_RTT_ALPHA;
+            //延迟已经恢复时，基准延迟快速回落，避免长时间的慢请求抬高基准
+            if (longRtt > shortRtt * 2) {
+                longRtt *= 0.95d;
+            }
+            longRttNanos = longRtt;
+            if (maxInFlight < current / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5d, Math.min(1.0d, tolerance * longRtt / shortRtt));
+            next = current * (1 - SMOOTHING) + (current * gradient + Math.sqrt(current)) * SMOOTHING;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
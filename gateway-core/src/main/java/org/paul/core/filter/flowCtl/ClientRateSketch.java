@@ -0,0 +1,257 @@
+package org.paul.core.filter.flowCtl;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.paul.common.config.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 按客户端限流的计数器，内存固定，与客户端个数无关
+ * 所有客户端共用一个count-min sketch，按时间窗口计数：保留当前窗口和上一个窗口，估算值 = 上一窗口 * 剩余比例 + 当前窗口（滑动窗口近似）
+ * 窗口切换时清空最旧的计数器，计数自然衰减，伪造大量ip的流量只会抬高计数器，不会增加内存
+ * sketch只会高估，估算超过限制的客户端提升到固定容量的重度客户端表中精确计数，被哈希冲突误伤的普通客户端也会在表中得到精确的判断
+ * 表满时淘汰速率最低的客户端（Space-Saving），表中所有客户端都比新客户端更重时，新客户端按sketch的估算值判断
+ */
+public class ClientRateSketch {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    //创建时的限流参数
+    private final Rule.FlowCtlLimit limit;
+
+    private final int depth;
+
+    private final int width;
+
+    //重度客户端表的容量
+    private final int capacity;
+
+    private final long windowMillis;
+
+    private volatile Window current;
+
+    private volatile Window previous;
+
+    //重度客户端，key为客户端标识
+    private final Map<String, HeavyHitter> heavyHitters;
+
+    /**
+     * @param limit    限流参数：每个客户端duration秒内permits个请求
+     * @param depth    sketch的行数
+     * @param width    sketch每行的计数器个数
+     * @param capacity 重度客户端表的容量
+     */
+    public ClientRateSketch(Rule.FlowCtlLimit limit, int depth, int width, int capacity) {
+        if (limit.getPermits() <= 0 || limit.getDuration() <= 0) {
+            throw new IllegalArgumentException("permits and duration must be positive");
+        }
+        this.limit = limit;
+        this.depth = Math.max(1, depth);
+        this.width = Math.max(1, width);
+        this.capacity = Math.max(1, capacity);
+        this.windowMillis = limit.getDuration() * 1000L;
+        this.heavyHitters = new ConcurrentHashMap<>(this.capacity * 2);
+        long index = System.currentTimeMillis() / windowMillis;
+        this.current = new Window(index, this.depth * this.width);
+        this.previous = new Window(index - 1, this.depth * this.width);
+    }
+
+    public Rule.FlowCtlLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * 记录客户端的一次请求并判断是否超过限制
+     *
+     * @param client 客户端标识
+     * @param now    当前时间（毫秒）
+     * @return 是否放行
+     */
+    public boolean tryAcquire(String client, long now) {
+        long index = now / windowMillis;
+        Window cur = rotate(index);
+        Window prev = previous;
+        //上一窗口在当前窗口中剩余的比例
+        double weight = prev.index == index - 1 ? 1d - (double) (now - index * windowMillis) / windowMillis : 0d;
+        int permits = limit.getPermits();
+
+        //已经在重度客户端表中的精确计数
+        HeavyHitter heavyHitter = heavyHitters.get(client);
+        if (heavyHitter != null) {
+            return heavyHitter.tryAcquire(index, weight, permits);
+        }
+
+        long hash = HASH_FUNCTION.hashString(client, StandardCharsets.UTF_8).asLong();
+        double estimate = cur.increment(hash, depth, width) + prev.estimate(hash, depth, width) * weight;
+        if (estimate <= permits) {
+            return true;
+        }
+        //估算超过限制：可能是重度客户端，也可能是哈希冲突，提升到表中精确计数
+        heavyHitter = promote(client, index, weight, estimate);
+        if (heavyHitter == null) {
+            return false;
+        }
+        return heavyHitter.tryAcquire(index, weight, permits);
+    }
+
+    /**
+     * 距离当前窗口结束的毫秒数，用于Retry-After
+     */
+    public long millisToNextWindow(long now) {
+        return windowMillis - now % windowMillis;
+    }
+
+    /**
+     * 窗口切换：上一窗口的计数器清空后作为新的当前窗口，跳过了多个窗口时两个窗口都清空
+     */
+    private Window rotate(long index) {
+        Window cur = current;
+        if (cur.index >= index) {
+            return cur;
+        }
+        synchronized (this) {
+            cur = current;
+            if (cur.index >= index) {
+                return cur;
+            }
+            Window old = previous;
+            if (cur.index != index - 1) {
+                cur.reset(index - 1);
+            }
+            old.reset(index);
+            previous = cur;
+            current = old;
+            return old;
+        }
+    }
+
+    /**
+     * 把客户端加入重度客户端表，表满时替换速率最低且低于估算值的客户端
+     *
+     * @return 表中的计数器，没能加入时返回null
+     */
+    private HeavyHitter promote(String client, long index, double weight, double estimate) {
+        synchronized (heavyHitters) {
+            HeavyHitter heavyHitter = heavyHitters.get(client);
+            if (heavyHitter != null) {
+                return heavyHitter;
+            }
+            if (heavyHitters.size() >= capacity) {
+                String victim = null;
+                double lowest = estimate;
+                for (Map.Entry<String, HeavyHitter> entry : heavyHitters.entrySet()) {
+                    double rate = entry.getValue().rate(index, weight);
+                    if (rate < lowest) {
+                        lowest = rate;
+                        victim = entry.getKey();
+                    }
+                }
+                if (victim == null) {
+                    return null;
+                }
+                heavyHitters.remove(victim);
+            }
+            heavyHitter = new HeavyHitter(index);
+            heavyHitters.put(client, heavyHitter);
+            return heavyHitter;
+        }
+    }
+
+    /**
+     * 一个时间窗口的sketch计数器，depth行width列展开成一维数组
+     */
+    private static class Window {
+
+        private volatile long index;
+
+        private final AtomicIntegerArray counters;
+
+        private Window(long index, int size) {
+            this.index = index;
+            this.counters = new AtomicIntegerArray(size);
+        }
+
+        /**
+         * 每一行的计数器加一，返回各行中的最小值
+         */
+        int increment(long hash, int depth, int width) {
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < depth; i++) {
+                min = Math.min(min, counters.incrementAndGet(slot(hash, i, width)));
+            }
+            return min;
+        }
+
+        int estimate(long hash, int depth, int width) {
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < depth; i++) {
+                min = Math.min(min, counters.get(slot(hash, i, width)));
+            }
+            return min;
+        }
+
+        /**
+         * 按双重哈希计算第row行的下标：h1 + row * h2
+         */
+        private static int slot(long hash, int row, int width) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            int combined = h1 + row * h2;
+            if (combined < 0) {
+                combined = ~combined;
+            }
+            return row * width + combined % width;
+        }
+
+        void reset(long newIndex) {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, 0);
+            }
+            index = newIndex;
+        }
+    }
+
+    /**
+     * 重度客户端的精确计数，同样按当前窗口和上一个窗口加权
+     */
+    private static class HeavyHitter {
+
+        private long index;
+
+        private int current;
+
+        private int previous;
+
+        private HeavyHitter(long index) {
+            this.index = index;
+        }
+
+        synchronized boolean tryAcquire(long now, double weight, int permits) {
+            roll(now);
+            if (previous * weight + current + 1 > permits) {
+                return false;
+            }
+            current++;
+            return true;
+        }
+
+        synchronized double rate(long now, double weight) {
+            roll(now);
+            return previous * weight + current;
+        }
+
+        private void roll(long now) {
+            //其他线程已经切换到了新窗口
+            if (now <= index) {
+                return;
+            }
+            previous = now == index + 1 ? current : 0;
+            current = 0;
+            index = now;
+        }
+    }
+}
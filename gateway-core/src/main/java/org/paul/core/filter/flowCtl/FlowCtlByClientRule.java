@@ -0,0 +1,104 @@
+package org.paul.core.filter.flowCtl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.paul.common.config.Rule;
+import org.paul.common.exception.FlowCtlException;
+import org.paul.common.utils.TimeUtil;
+import org.paul.core.Config;
+import org.paul.core.ConfigLoader;
+import org.paul.core.context.GatewayContext;
+import org.paul.core.request.GatewayRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.paul.common.constants.FilterConst.*;
+
+/**
+ * 根据客户端进行流控，每个客户端duration秒内最多permits个请求
+ * 客户端标识由配置的value决定：ip（默认）/ user（用户id，未登录时使用ip）/ header:名称（例如api key，取不到时使用ip）
+ * 计数使用内存固定的ClientRateSketch，不为每个客户端创建对象，只在本节点内计数
+ */
+public class FlowCtlByClientRule implements IGatewayFlowCtlRule {
+    private String serviceId;
+
+    //同一个服务可以配置多个客户端限流，key为客户端标识的来源
+    private final ConcurrentHashMap<String, ClientRateSketch> sketchMap = new ConcurrentHashMap<>();
+
+    public FlowCtlByClientRule(String serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    //将实例放在concurrentHashMap中
+    private static ConcurrentHashMap<String /*serviceId*/, FlowCtlByClientRule> serviceMap = new ConcurrentHashMap<>();
+
+    //对外暴露获取当前实例的方法，根据serviceId获取
+    public static FlowCtlByClientRule getInstance(String serviceId) {
+        return serviceMap.computeIfAbsent(serviceId, FlowCtlByClientRule::new);
+    }
+
+    /**
+     * 根据客户端执行流控
+     *
+     * @param ctx
+     * @param flowCtlConfig
+     * @param serviceId
+     */
+    @Override
+    public CompletableFuture<Void> doFlowCtlFilter(GatewayContext ctx, Rule.FlowCtlConfig flowCtlConfig, String serviceId) {
+        //如果流控规则为空 或 serviceId  或  配置中的规则为空，直接返回
+        if (flowCtlConfig == null || StringUtils.isEmpty(serviceId) || StringUtils.isEmpty(flowCtlConfig.getConfig())) {
+            return null;
+        }
+
+        //限流参数在规则加载时已经解析好：每个客户端duration秒内permits个请求
+        Rule.FlowCtlLimit limit = flowCtlConfig.getLimit();
+        if (limit == null) {
+            return null;
+        }
+
+        String spec = StringUtils.defaultIfEmpty(flowCtlConfig.getValue(), FLOW_CTL_CLIENT_KEY_IP);
+        String client = resolveClient(ctx.getRequest(), spec);
+        if (client == null) {
+            return null;
+        }
+
+        ClientRateSketch sketch = getSketch(spec, limit);
+        long now = TimeUtil.currentTimeMillis();
+        if (!sketch.tryAcquire(client, now)) {
+            throw new FlowCtlException(sketch.millisToNextWindow(now));
+        }
+        return null;
+    }
+
+    /**
+     * 获取客户端标识来源对应的sketch，限流参数变化时重新创建
+     */
+    private ClientRateSketch getSketch(String spec, Rule.FlowCtlLimit limit) {
+        ClientRateSketch sketch = sketchMap.get(spec);
+        if (sketch != null && sketch.getLimit().equals(limit)) {
+            return sketch;
+        }
+        Config config = ConfigLoader.getConfig();
+        return sketchMap.compute(spec, (k, current) ->
+                current != null && current.getLimit().equals(limit) ? current
+                        : new ClientRateSketch(limit, config.getFlowCtlSketchDepth(), config.getFlowCtlSketchWidth(), config.getFlowCtlHeavyHitters()));
+    }
+
+    /**
+     * 根据配置从请求中取出客户端标识，取不到时使用客户端ip
+     */
+    static String resolveClient(GatewayRequest request, String spec) {
+        if (request == null) {
+            return null;
+        }
+        String value = null;
+        if (spec.equalsIgnoreCase(FLOW_CTL_CLIENT_KEY_USER)) {
+            value = request.getUserId() > 0 ? FLOW_CTL_CLIENT_KEY_USER + ":" + request.getUserId() : null;
+        } else if (spec.startsWith(FLOW_CTL_CLIENT_KEY_HEADER)) {
+            String header = request.getHeaders().get(spec.substring(FLOW_CTL_CLIENT_KEY_HEADER.length()));
+            value = StringUtils.isEmpty(header) ? null : spec + "=" + header;
+        }
+        return value == null ? request.getClientIp() : value;
+    }
+}
@@ -1,11 +1,12 @@
 package org.paul.core.filter.flowCtl;
 
-import com.alibaba.fastjson.JSON;
 import org.apache.commons.lang3.StringUtils;
 import org.paul.common.config.Rule;
+import org.paul.common.exception.FlowCtlException;
+import org.paul.core.context.GatewayContext;
 import org.paul.core.redis.JedisUtil;
 
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.paul.common.constants.FilterConst.*;
@@ -18,8 +19,6 @@ public class FlowCtlByServiceRule implements IGatewayFlowCtlRule {
 
     private RedisCountLimiter redisCountLimiter;
 
-    private static final String LIMIT_MESSAGE = "请求过于频繁，请稍后重试";
-
     //redis限流对象，添加到构造函数中；暴露方法也要设置
 
     public FlowCtlByServiceRule(String serviceId, RedisCountLimiter redisCountLimiter) {
@@ -47,51 +46,49 @@ public class FlowCtlByServiceRule implements IGatewayFlowCtlRule {
     /**
      * 根据serviceId执行流控
      *
+     * @param ctx
      * @param flowCtlConfig
      * @param serviceId
      */
     @Override
-    public void doFlowCtlFilter(Rule.FlowCtlConfig flowCtlConfig, String serviceId) {
+    public CompletableFuture<Void> doFlowCtlFilter(GatewayContext ctx, Rule.FlowCtlConfig flowCtlConfig, String serviceId) {
         //如果流控规则为空 或 serviceId  或  配置中的规则为空，直接返回
         if (flowCtlConfig == null || StringUtils.isEmpty(serviceId) || StringUtils.isEmpty(flowCtlConfig.getConfig())) {
-            return;
+            return null;
         }
 
-        //流控指的是某一分钟内执行多少次，具体为duration/permits，将这个值放到Map中，key为两个对应的描述的字符串
-        //需要从flowCtlConfig中解析上述两个参数
-        Map<String, Integer> configMap = JSON.parseObject(flowCtlConfig.getConfig(), Map.class);
-        //只要一个参数为空，直接返回，不做流控
-        if (!configMap.containsKey(FLOW_CTL_LIMIT_DURATION) || !configMap.containsKey(FLOW_CTL_LIMIT_PERMITS)) {
-            return;
+        //限流参数在规则加载时已经解析好：duration秒内permits个请求
+        Rule.FlowCtlLimit limit = flowCtlConfig.getLimit();
+        if (limit == null) {
+            return null;
         }
-        //从上述Map中获取两个参数
-        double duration = configMap.get(FLOW_CTL_LIMIT_DURATION);
-        double permits = configMap.get(FLOW_CTL_LIMIT_PERMITS);
-
 
         String key = serviceId;
 
         /******具体流控******/
         boolean flag = true;
-        //区分是分布式还是单机，分布式就使用redis，单机就使用guava中的rateLimiter
-        if (flowCtlConfig.getModel().equalsIgnoreCase(FLOW_CTL_MODEL_DISRTIBUTED)) {
-            // redis中的限流，根据限流结果设置flag
-            flag = redisCountLimiter.doFlowCtl(key, (int) permits, (int) duration);
+        //区分是分布式还是单机，分布式就使用redis，单机就使用本地令牌桶
+        if (flowCtlConfig.getModel().equalsIgnoreCase(FLOW_CTL_MODEL_DISRTIBUTED) && limit.getLease() > 0) {
+            //固定窗口配置了租约时，在本地扣减从redis租到的令牌
+            flag = RedisLeaseLimiter.getInstance(key, limit).acquire();
+        } else if (RedisCountLimiter.isRedisModel(flowCtlConfig.getModel())) {
+            // redis中的限流：固定窗口/GCRA/滑动窗口，异步等待redis的结果
+            return redisCountLimiter.doFlowCtlAsync(key, limit, flowCtlConfig.getModel());
         } else {
-            //guava中的rateLimiter时，如果不能获取对应的对象，直接抛出异常
-            double count = Math.ceil(permits / duration);
-            GuavaCountLimiter guavaCountLimiter = GuavaCountLimiter.getInstance(serviceId, flowCtlConfig, (int) count);
-            if (guavaCountLimiter == null) {
+            //单机令牌桶，如果不能获取对应的对象，直接抛出异常
+            TokenBucketLimiter tokenBucketLimiter = TokenBucketLimiter.getInstance(serviceId, flowCtlConfig, limit);
+            if (tokenBucketLimiter == null) {
                 throw new RuntimeException("获取单机限流工具类失败");
             }
             //尝试获取对应数量的令牌，判断是否被限流，设置flag
 
-            flag = guavaCountLimiter.acquire(1);
+            flag = tokenBucketLimiter.acquire(1);
         }
 
         //使用flag表示是否被流控了，流控了就直接抛出异常
         if (!flag) {
-            throw new RuntimeException(LIMIT_MESSAGE);
+            throw new FlowCtlException();
         }
+        return null;
     }
 }
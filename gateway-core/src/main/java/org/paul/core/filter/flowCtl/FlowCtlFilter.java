@@ -8,6 +8,7 @@ import org.paul.core.filter.FilterAspect;
 
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.paul.common.constants.FilterConst.*;
 
@@ -28,6 +29,7 @@ public class FlowCtlFilter implements Filter {
             Set<Rule.FlowCtlConfig> flowCtlConfigs = rule.getFlowCtlConfigs();
             Iterator iterator = flowCtlConfigs.iterator();
             Rule.FlowCtlConfig flowCtlConfig;
+            CompletableFuture<Void> pending = null;
             while (iterator.hasNext()){
                 flowCtlConfig = (Rule.FlowCtlConfig)iterator.next();
                 if(flowCtlConfig == null){
@@ -46,19 +48,26 @@ public class FlowCtlFilter implements Filter {
                     //获取对应的流控规则
                     flowCtlRule = FlowCtlByServiceRule.getInstance(rule.getServiceId());
                 }
+                //如果限流类型是根据客户端限流，每个客户端单独计数
+                else if (flowCtlConfig.getType().equalsIgnoreCase(FLOW_CTL_TYPE_CLIENT)){
+                    flowCtlRule = FlowCtlByClientRule.getInstance(rule.getServiceId());
+                }
 
 
                 //如果流控规则不为空，执行对应的流控方法，传入对应的流控规则+服务id
                 if(flowCtlRule != null){
-                    flowCtlRule.doFlowCtlFilter(flowCtlConfig, rule.getServiceId());
+                    CompletableFuture<Void> future = flowCtlRule.doFlowCtlFilter(ctx, flowCtlConfig, rule.getServiceId());
+                    //需要等待redis的结果，记录下来
+                    if (future != null) {
+                        pending = pending == null ? future : CompletableFuture.allOf(pending, future);
+                    }
                 }
             }
 
-
+            //有限流结果需要等待redis时挂起过滤器链条，结果返回后再继续执行后面的过滤器，不阻塞当前线程
+            if (pending != null) {
+                ctx.suspendUntil(pending);
+            }
         }
-
-
-
-
     }
 }
@@ -3,9 +3,19 @@ package org.paul.core.filter.flowCtl;
 import org.paul.common.config.Rule;
 import org.paul.core.context.GatewayContext;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 执行限流的接口，后续还会分为根据path/service流控
  */
 public interface IGatewayFlowCtlRule {
-    void doFlowCtlFilter(Rule.FlowCtlConfig flowCtlConfig, String serviceId);
+    /**
+     * 执行限流，被限流时抛出异常
+     *
+     * @param ctx           当前请求的上下文，按客户端限流时从中取出客户端标识
+     * @param flowCtlConfig
+     * @param serviceId
+     * @return 需要等待redis的结果时返回对应的future，被限流时future异常结束；已经同步完成时返回null
+     */
+    CompletableFuture<Void> doFlowCtlFilter(GatewayContext ctx, Rule.FlowCtlConfig flowCtlConfig, String serviceId);
 }
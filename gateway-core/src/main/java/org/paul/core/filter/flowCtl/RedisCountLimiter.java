@@ -1,11 +1,80 @@
 package org.paul.core.filter.flowCtl;
 
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.Rule;
+import org.paul.common.exception.FlowCtlException;
+import org.paul.core.redis.AsyncRedisClient;
 import org.paul.core.redis.JedisUtil;
+import org.paul.core.redis.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.paul.common.constants.FilterConst.*;
 
 /**
  * 使用redis实现分布式限流
  */
+@Slf4j
 public class RedisCountLimiter {
+    //固定窗口计数
+    private static final RedisScript COUNT_LIMIT_SCRIPT = new RedisScript(JedisUtil.COUNT_LIMIT_SCRIPT);
+
+    //GCRA：key中保存理论到达时间tat，ARGV[1]为每个请求的间隔（毫秒），ARGV[2]为允许的突发数
+    //使用redis的时间，避免各个网关节点的时钟偏差
+    private static final RedisScript GCRA_SCRIPT = new RedisScript(
+            "redis.replicate_commands()\n" +
+            "local emission = tonumber(ARGV[1])\n" +
+            "local tolerance = emission * tonumber(ARGV[2])\n" +
+            "local time = redis.call('TIME')\n" +
+            "local now = tonumber(time[1]) * 1000 + tonumber(time[2]) / 1000\n" +
+            "local tat = tonumber(redis.call('GET', KEYS[1]) or now)\n" +
+            "if tat < now then\n" +
+            "  tat = now\n" +
+            "end\n" +
+            "local newTat = tat + emission\n" +
+            "local allowAt = newTat - tolerance\n" +
+            "if allowAt > now then\n" +
+            "  return {0, 0, math.ceil(allowAt - now)}\n" +
+            "end\n" +
+            "redis.call('SET', KEYS[1], string.format('%.3f', newTat), 'PX', math.ceil(newTat - now))\n" +
+            "return {1, math.floor((now - allowAt) / emission), 0}\n");
+
+    //滑动窗口计数：key是一个hash，w为当前窗口编号，c为当前窗口计数，p为上一个窗口计数
+    //估算值 = 上一个窗口计数 * 上一个窗口在滑动窗口中剩余的比例 + 当前窗口计数，ARGV[1]为窗口长度（毫秒），ARGV[2]为窗口内的请求数
+    private static final RedisScript SLIDING_WINDOW_SCRIPT = new RedisScript(
+            "redis.replicate_commands()\n" +
+            "local window = tonumber(ARGV[1])\n" +
+            "local limit = tonumber(ARGV[2])\n" +
+            "local time = redis.call('TIME')\n" +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)\n" +
+            "local current = math.floor(now / window)\n" +
+            "local data = redis.call('HMGET', KEYS[1], 'w', 'c', 'p')\n" +
+            "local w = tonumber(data[1])\n" +
+            "local c = tonumber(data[2]) or 0\n" +
+            "local p = tonumber(data[3]) or 0\n" +
+            "if w == current - 1 then\n" +
+            "  p = c\n" +
+            "  c = 0\n" +
+            "elseif w ~= current then\n" +
+            "  p = 0\n" +
+            "  c = 0\n" +
+            "end\n" +
+            "local elapsed = now - current * window\n" +
+            "local count = p * (window - elapsed) / window + c\n" +
+            "if count + 1 > limit then\n" +
+            "  local retry = window - elapsed\n" +
+            "  if p > 0 and c + 1 <= limit then\n" +
+            "    retry = math.min(retry, math.ceil((count + 1 - limit) * window / p))\n" +
+            "  end\n" +
+            "  return {0, 0, retry}\n" +
+            "end\n" +
+            "redis.call('HMSET', KEYS[1], 'w', current, 'c', c + 1, 'p', p)\n" +
+            "redis.call('PEXPIRE', KEYS[1], window * 2)\n" +
+            "return {1, math.floor(limit - count - 1), 0}\n");
+
     //引入reids对应的工具包，还需要配置properties
     protected JedisUtil jedisUtil;
 
@@ -39,4 +108,58 @@ public class RedisCountLimiter {
             throw new RuntimeException("分布式限流错误");
         }
     }
+
+    /**
+     * 是否是基于redis的限流模型
+     *
+     * @param model
+     * @return
+     */
+    public static boolean isRedisModel(String model) {
+        return FLOW_CTL_MODEL_DISRTIBUTED.equalsIgnoreCase(model)
+                || FLOW_CTL_MODEL_GCRA.equalsIgnoreCase(model)
+                || FLOW_CTL_MODEL_SLIDING_WINDOW.equalsIgnoreCase(model);
+    }
+
+    /**
+     * 异步执行限流，通过非阻塞的redis客户端执行对应模型的lua脚本，不占用请求线程
+     * 被限流时future以FlowCtlException异常结束；和同步方法一样，redis出错时不限流
+     *
+     * @param key   限流对象，redis中的key按模型加前缀
+     * @param limit
+     * @param model 固定窗口/GCRA/滑动窗口
+     * @return
+     */
+    public CompletableFuture<Void> doFlowCtlAsync(String key, Rule.FlowCtlLimit limit, String model) {
+        long windowMillis = limit.getDuration() * 1000L;
+        CompletableFuture<Object> future;
+        if (FLOW_CTL_MODEL_GCRA.equalsIgnoreCase(model)) {
+            //每个请求的间隔（毫秒），可以是小数
+            double emissionMillis = (double) windowMillis / limit.getPermits();
+            future = AsyncRedisClient.getInstance().evalsha(GCRA_SCRIPT, Collections.singletonList(FLOW_CTL_REDIS_KEY_PREFIX_GCRA + key),
+                    Arrays.asList(String.valueOf(emissionMillis), String.valueOf(limit.getBurst())));
+        } else if (FLOW_CTL_MODEL_SLIDING_WINDOW.equalsIgnoreCase(model)) {
+            future = AsyncRedisClient.getInstance().evalsha(SLIDING_WINDOW_SCRIPT, Collections.singletonList(FLOW_CTL_REDIS_KEY_PREFIX_SLIDING_WINDOW + key),
+                    Arrays.asList(String.valueOf(windowMillis), String.valueOf(limit.getPermits())));
+        } else {
+            future = AsyncRedisClient.getInstance().evalsha(COUNT_LIMIT_SCRIPT, Collections.singletonList(key),
+                    Arrays.asList(String.valueOf(limit.getDuration()), String.valueOf(limit.getPermits())));
+        }
+        return future.handle((result, throwable) -> {
+            if (throwable != null) {
+                log.warn("分布式限流错误, key {}: {}", key, throwable.getMessage());
+                return null;
+            }
+            //GCRA和滑动窗口返回 {是否通过, 剩余数量, 重试等待毫秒数}，固定窗口返回1/0
+            if (result instanceof List) {
+                List<?> values = (List<?>) result;
+                if (((Number) values.get(0)).longValue() != SUCCESS_RESULT) {
+                    throw new FlowCtlException(((Number) values.get(2)).longValue());
+                }
+            } else if (result != null && Long.parseLong(result.toString()) != SUCCESS_RESULT) {
+                throw new FlowCtlException();
+            }
+            return null;
+        });
+    }
 }
@@ -0,0 +1,211 @@
+package org.paul.core.filter.flowCtl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.Rule;
+import org.paul.common.utils.TimeUtil;
+import org.paul.core.ConfigLoader;
+import org.paul.core.redis.AsyncRedisClient;
+import org.paul.core.redis.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.paul.common.constants.FilterConst.*;
+
+/**
+ * 使用redis租约实现分布式限流
+ * 每个网关节点一次从redis原子地租用一批令牌，请求在本地扣减租约，不再每个请求都访问redis
+ * 租约剩余不到一半时通过非阻塞的redis客户端异步续租，redis的延迟不在请求线程上；redis返回0表示这个时间窗口的令牌已经用完，窗口结束前直接拒绝
+ * 还没有租约（刚启动、窗口切换）或者redis慢、不可用时，按配置降级：单机限流/全部放行/全部拒绝
+ * 单机限流按配置的节点数分摊速率，所有节点降级时合计不超过配置的速率
+ * redis正常、等待续租时降级放过的请求记为欠账，从下一次租到的令牌中扣除，欠账不超过一个租约
+ * 因此redis正常时全局误差不超过 节点数*租约大小；redis不可用期间的请求不经过redis计数，只受单机限流约束
+ * 节点租到但没用完的令牌在窗口结束时作废
+ */
+@Slf4j
+public class RedisLeaseLimiter {
+
+    //redis中按窗口计数，一次最多租用ARGV[2]个，不超过窗口剩余的令牌，返回 {租到的数量, 窗口剩余毫秒数}
+    private static final RedisScript LEASE_SCRIPT = new RedisScript(
+            "local limit = tonumber(ARGV[1])\n" +
+            "local used = tonumber(redis.call('get', KEYS[1]) or '0')\n" +
+            "local grant = math.min(tonumber(ARGV[2]), limit - used)\n" +
+            "if grant <= 0 then\n" +
+            "  return {0, redis.call('pttl', KEYS[1])}\n" +
+            "end\n" +
+            "redis.call('incrby', KEYS[1], grant)\n" +
+            "local ttl = redis.call('pttl', KEYS[1])\n" +
+            "if ttl < 0 then\n" +
+            "  redis.call('pexpire', KEYS[1], ARGV[3])\n" +
+            "  ttl = tonumber(ARGV[3])\n" +
+            "end\n" +
+            "return {grant, ttl}\n");
+
+    private final String key;
+
+    private final Rule.FlowCtlLimit limit;
+
+    //降级为单机限流时使用
+    private final TokenBucketLimiter localLimiter;
+
+    //当前租约剩余的令牌
+    private final AtomicLong remaining = new AtomicLong();
+
+    //等待续租时降级放过、还没有从租约中扣除的令牌
+    private final AtomicLong debt = new AtomicLong();
+
+    //当前租约所在窗口的结束时间，之后剩余的令牌作废
+    private volatile long windowEndMillis;
+
+    //窗口的令牌已经用完，到这个时间之前不再续租
+    private volatile long exhaustedUntilMillis;
+
+    //redis慢或者不可用，到这个时间之前不访问redis
+    private volatile long degradedUntilMillis;
+
+    //是否有续租任务在执行
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    public RedisLeaseLimiter(String key, Rule.FlowCtlLimit limit) {
+        //租约和固定窗口都是计数，但是含义不同，使用单独的key
+        this.key = FLOW_CTL_REDIS_KEY_PREFIX_LEASE + key;
+        this.limit = limit;
+        this.localLimiter = new TokenBucketLimiter(limit.perNode());
+    }
+
+    //将实例放在concurrentHashMap中，key为限流的key
+    private static ConcurrentHashMap<String, RedisLeaseLimiter> leaseLimiterMap = new ConcurrentHashMap<>();
+
+    /**
+     * 对外暴露获取当前实例的方法，限流参数变化时重新创建
+     *
+     * @param key
+     * @param limit
+     * @return
+     */
+    public static RedisLeaseLimiter getInstance(String key, Rule.FlowCtlLimit limit) {
+        RedisLeaseLimiter limiter = leaseLimiterMap.get(key);
+        if (limiter != null && limiter.limit.equals(limit)) {
+            return limiter;
+        }
+        return leaseLimiterMap.compute(key, (k, current) ->
+                current != null && current.limit.equals(limit) ? current : new RedisLeaseLimiter(key, limit));
+    }
+
+    /**
+     * 尝试获取一个令牌，不阻塞
+     *
+     * @return 是否获取成功
+     */
+    public boolean acquire() {
+        long now = TimeUtil.currentTimeMillis();
+        if (now < windowEndMillis) {
+            //在租约中扣减
+            long left = remaining.get();
+            while (left > 0) {
+                if (remaining.compareAndSet(left, left - 1)) {
+                    //剩余不到一半时提前续租
+                    if (left - 1 < limit.getLease() / 2) {
+                        refill(now);
+                    }
+                    return true;
+                }
+                left = remaining.get();
+            }
+        }
+        //窗口的令牌已经用完
+        if (now < exhaustedUntilMillis) {
+            return false;
+        }
+        refill(now);
+        //还没有租约或者redis不可用，按配置降级
+        return fallback(now);
+    }
+
+    private boolean fallback(long now) {
+        String fallback = limit.getFallback();
+        if (FLOW_CTL_FALLBACK_DENY.equalsIgnoreCase(fallback)) {
+            return false;
+        }
+        if (!FLOW_CTL_FALLBACK_ALLOW.equalsIgnoreCase(fallback) && !localLimiter.acquire(1)) {
+            return false;
+        }
+        //redis正常时只是在等待续租，放过的请求记为欠账，欠账满一个租约后拒绝
+        if (now >= degradedUntilMillis) {
+            if (debt.incrementAndGet() > limit.getLease()) {
+                debt.decrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 异步续租，同一时间只有一个续租任务，redis降级期间、窗口的令牌用完时不续租
+     */
+    private void refill(long now) {
+        if (now < degradedUntilMillis || now < exhaustedUntilMillis || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long windowMillis = limit.getDuration() * 1000L;
+        try {
+            AsyncRedisClient.getInstance()
+                    .evalsha(LEASE_SCRIPT, Collections.singletonList(key),
+                            Arrays.asList(String.valueOf(limit.getPermits()), String.valueOf(limit.getLease()), String.valueOf(windowMillis)))
+                    .whenComplete((result, throwable) -> {
+                        try {
+                            onRefilled(start, windowMillis, result, throwable);
+                        } finally {
+                            refilling.set(false);
+                        }
+                    });
+        } catch (Exception e) {
+            refilling.set(false);
+            degrade(System.currentTimeMillis(), e.getMessage());
+        }
+    }
+
+    private void onRefilled(long start, long windowMillis, Object result, Throwable throwable) {
+        long end = System.currentTimeMillis();
+        if (throwable != null || !(result instanceof List) || ((List<?>) result).size() < 2) {
+            degrade(end, throwable != null ? throwable.getMessage() : "unexpected result " + result);
+            return;
+        }
+        if (end - start > ConfigLoader.getConfig().getFlowCtlRedisTimeoutMillis()) {
+            //这次的结果仍然可用，只是一段时间内不再访问redis
+            degrade(end, "redis slow, cost " + (end - start) + "ms");
+        }
+        List<?> values = (List<?>) result;
+        long granted = ((Number) values.get(0)).longValue();
+        long ttl = ((Number) values.get(1)).longValue();
+        long windowEnd = end + (ttl > 0 ? ttl : windowMillis);
+        if (granted <= 0) {
+            exhaustedUntilMillis = windowEnd;
+            return;
+        }
+        //先还清等待续租期间的欠账，还不完的留到下一次
+        long owed = debt.getAndSet(0);
+        long usable = granted - owed;
+        if (usable < 0) {
+            debt.addAndGet(-usable);
+            usable = 0;
+        }
+        //新窗口的租约替换旧窗口剩余的令牌，同一窗口内累加
+        if (end >= windowEndMillis) {
+            remaining.set(usable);
+        } else {
+            remaining.addAndGet(usable);
+        }
+        windowEndMillis = windowEnd;
+    }
+
+    private void degrade(long now, String reason) {
+        degradedUntilMillis = now + ConfigLoader.getConfig().getFlowCtlRedisRetryMillis();
+        log.warn("flow control lease degraded, key {}, fallback {}, reason: {}", key, limit.getFallback(), reason);
+    }
+}
@@ -0,0 +1,128 @@
+package org.paul.core.filter.flowCtl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.paul.common.config.Rule;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单机实现限流：无锁令牌桶
+ * 按GCRA算法实现，每个桶只保存一个"理论到达时间"（tat），获取令牌就是CAS把tat往后推，不需要加锁，也不需要定时补充令牌
+ * 允许突发：tat最多比当前时间超前burst个令牌的时间，即桶满时可以一次性放过burst个请求
+ * 可选分段：令牌按分段数平分到多个桶，线程按id落到固定的桶，减少热点服务上的CAS冲突；自己的桶没有令牌时再尝试其他桶，总速率不变
+ */
+public class TokenBucketLimiter {
+
+    //分段之间间隔的long个数，让每个分段的tat独占一个缓存行，避免伪共享
+    private static final int PADDING = 8;
+
+    //创建时的限流参数
+    private final Rule.FlowCtlLimit limit;
+
+    //分段数
+    private final int stripes;
+
+    //每个分段产生一个令牌的间隔（纳秒）
+    private final long intervalNanos;
+
+    //每个分段的tat最多超前当前时间多少（纳秒），桶容量不能被分段数整除时，余数分给前面的分段
+    private final long[] toleranceNanos;
+
+    //每个分段的理论到达时间
+    private final AtomicLongArray tats;
+
+    /**
+     * @param limit 限流参数：每秒令牌数、桶容量（最多允许的突发请求数）、分段数（1表示不分段）
+     */
+    public TokenBucketLimiter(Rule.FlowCtlLimit limit) {
+        double permitsPerSecond = limit.getPermitsPerSecond();
+        int burst = limit.getBurst();
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.limit = limit;
+        //每个分段至少要能放过一个请求，分段数不超过桶容量
+        this.stripes = Math.max(1, Math.min(limit.getStripes(), burst));
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) * this.stripes / permitsPerSecond));
+        this.toleranceNanos = new long[this.stripes];
+        for (int i = 0; i < this.stripes; i++) {
+            toleranceNanos[i] = intervalNanos * (burst / this.stripes + (i < burst % this.stripes ? 1 : 0));
+        }
+        this.tats = new AtomicLongArray(this.stripes * PADDING);
+        //初始时桶是满的
+        long now = System.nanoTime();
+        for (int i = 0; i < this.stripes; i++) {
+            tats.set(i * PADDING, now);
+        }
+    }
+
+    //定义一个缓存获取当前实例，放在Map中，key为serviceId+限流对象（ip/path/serviceId）
+    private static ConcurrentHashMap<String, TokenBucketLimiter> resourceRateLimiterMap = new ConcurrentHashMap<>();
+
+    /**
+     * 对外暴露获取当前实例的方法，限流参数变化时重新创建
+     *
+     * @param serviceId
+     * @param flowCtlConfig
+     * @param limit         规则加载时解析好的限流参数
+     * @return 配置不完整时返回null
+     */
+    public static TokenBucketLimiter getInstance(String serviceId, Rule.FlowCtlConfig flowCtlConfig, Rule.FlowCtlLimit limit) {
+        //如果配置为空或者配置中任意参数为空，直接返回null
+        if (StringUtils.isEmpty(serviceId)
+                || flowCtlConfig == null
+                || limit == null
+                || StringUtils.isEmpty(flowCtlConfig.getValue())
+                || StringUtils.isEmpty(flowCtlConfig.getType())) {
+            return null;
+        }
+        String key = serviceId + "." + flowCtlConfig.getValue();
+        TokenBucketLimiter limiter = resourceRateLimiterMap.get(key);
+        if (limiter != null && limiter.limit.equals(limit)) {
+            return limiter;
+        }
+        return resourceRateLimiterMap.compute(key, (k, current) ->
+                current != null && current.limit.equals(limit) ? current : new TokenBucketLimiter(limit));
+    }
+
+    /**
+     * 尝试获取令牌，不等待
+     *
+     * @param permits
+     * @return 是否获取成功
+     */
+    public boolean acquire(int permits) {
+        long now = System.nanoTime();
+        //线程优先使用自己的分段
+        int home = stripes == 1 ? 0 : (int) (Thread.currentThread().getId() % stripes);
+        if (tryAcquire(home, permits, now)) {
+            return true;
+        }
+        for (int i = 1; i < stripes; i++) {
+            if (tryAcquire((home + i) % stripes, permits, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tryAcquire(int stripe, int permits, long now) {
+        int index = stripe * PADDING;
+        long cost = intervalNanos * permits;
+        while (true) {
+            long tat = tats.get(index);
+            //tat落后于当前时间说明桶已经满了，从当前时间开始算
+            long base = tat - now < 0 ? now : tat;
+            long next = base + cost;
+            //超前太多说明令牌不够
+            if (next - now > toleranceNanos[stripe]) {
+                return false;
+            }
+            if (tats.compareAndSet(index, tat, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.paul.core.filter.loadbalance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.DynamicConfigManager;
+import org.paul.common.config.ServiceInstance;
+import org.paul.common.enums.ResponseCode;
+import org.paul.common.exception.NotFoundException;
+import org.paul.common.utils.TimeUtil;
+import org.paul.core.Config;
+import org.paul.core.ConfigLoader;
+import org.paul.core.context.GatewayContext;
+
+/**
+ * 负载均衡抽象类
+ * 从服务实例快照中拿到不可变的实例数组，子类只需要根据数组选择实例
+ */
+@Slf4j
+public abstract class AbstractLoadBalanceRule implements IGatewayLoadBalanceRule {
+
+    protected final String serviceId;
+
+    //过滤掉被摘除实例后的可用实例，全部实例和灰度实例分别缓存
+    private volatile OutlierDetector.AvailableInstances available;
+
+    private volatile OutlierDetector.AvailableInstances grayAvailable;
+
+    //实例数组中最晚结束预热的时间，全部实例和灰度实例分别缓存，交替请求时不会互相覆盖
+    private volatile WarmupWindow warmupWindow;
+
+    private volatile WarmupWindow grayWarmupWindow;
+
+    protected AbstractLoadBalanceRule(String serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    @Override
+    public ServiceInstance choose(GatewayContext ctx) {
+        return doChoose(ctx, getInstances(ctx.getUniqueId(), ctx.isGray()), ctx.isGray());
+    }
+
+    @Override
+    public ServiceInstance choose(String serviceId, boolean gray) {
+        return doChoose(getInstances(serviceId, gray), gray);
+    }
+
+    /**
+     * 获取服务实例数组，没有可用实例时抛出异常
+     */
+    private ServiceInstance[] getInstances(String serviceId, boolean gray) {
+        //每次从最新的快照中获取，注册中心变化后快照会被整体替换
+        ServiceInstance[] instances = DynamicConfigManager.getInstance()
+                .getServiceInstanceSnapshot(serviceId).getInstances(gray);
+
+        if (instances.length == 0) {
+            //注册中心真的没有对应的service实例
+            log.warn("No instance available for: {}", serviceId);
+            throw new NotFoundException(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
+        }
+        return filterEjected(instances, gray);
+    }
+
+    /**
+     * 过滤掉被异常检测摘除的实例，结果按快照、摘除版本号和有效期缓存，没有实例被摘除时返回原数组
+     */
+    private ServiceInstance[] filterEjected(ServiceInstance[] instances, boolean gray) {
+        OutlierDetector outlierDetector = OutlierDetector.getInstance();
+        long now = TimeUtil.currentTimeMillis();
+        OutlierDetector.AvailableInstances current = gray ? grayAvailable : available;
+        if (current == null || !current.isValid(instances, outlierDetector.getEpoch(), now)) {
+            current = outlierDetector.filter(instances, now);
+            if (gray) {
+                grayAvailable = current;
+            } else {
+                available = current;
+            }
+        }
+        return current.instances;
+    }
+
+    /**
+     * 根据请求上下文选择实例，需要请求信息的策略（如一致性哈希）重写这个方法
+     *
+     * @param ctx
+     * @param instances
+     * @param gray
+     * @return
+     */
+    protected ServiceInstance doChoose(GatewayContext ctx, ServiceInstance[] instances, boolean gray) {
+        return doChoose(instances, gray);
+    }
+
+    /**
+     * 从实例数组中选择一个实例，数组不为空且不能修改
+     * 同一个快照每次传入的是同一个数组对象，子类可以按数组对象缓存计算结果
+     *
+     * @param instances
+     * @param gray
+     * @return
+     */
+    protected abstract ServiceInstance doChoose(ServiceInstance[] instances, boolean gray);
+
+    /**
+     * 实例数组中是否有实例还在预热，结果按数组对象缓存，预热结束后只需要比较一次时间
+     *
+     * @param instances
+     * @param gray 实例数组是否是灰度实例
+     * @param now
+     * @return
+     */
+    protected boolean isWarmingUp(ServiceInstance[] instances, boolean gray, long now) {
+        WarmupWindow window = gray ? grayWarmupWindow : warmupWindow;
+        if (window == null || window.source != instances) {
+            long warmupEnd = 0;
+            for (ServiceInstance instance : instances) {
+                warmupEnd = Math.max(warmupEnd, instance.getRegisterTime() + ConfigLoader.getConfig().getLoadBalanceWarmupMillis());
+            }
+            window = new WarmupWindow(instances, warmupEnd);
+            if (gray) {
+                grayWarmupWindow = window;
+            } else {
+                warmupWindow = window;
+            }
+        }
+        return now < window.warmupEnd;
+    }
+
+    /**
+     * 实例的预热系数，刚注册时为最小比例，预热时间内线性增长到1
+     *
+     * @param instance
+     * @param now
+     * @return
+     */
+    protected static double warmupFactor(ServiceInstance instance, long now) {
+        Config config = ConfigLoader.getConfig();
+        long warmupMillis = config.getLoadBalanceWarmupMillis();
+        long elapsed = now - instance.getRegisterTime();
+        //没有注册时间或者关闭预热时不做处理
+        if (warmupMillis <= 0 || instance.getRegisterTime() <= 0 || elapsed >= warmupMillis) {
+            return 1d;
+        }
+        double minFactor = config.getLoadBalanceWarmupMinPercent() / 100d;
+        return Math.max(minFactor, Math.max(0, elapsed) / (double) warmupMillis);
+    }
+
+    /**
+     * 实例数组和其中最晚的预热结束时间
+     */
+    private static class WarmupWindow {
+        private final ServiceInstance[] source;
+        private final long warmupEnd;
+
+        private WarmupWindow(ServiceInstance[] source, long warmupEnd) {
+            this.source = source;
+            this.warmupEnd = warmupEnd;
+        }
+    }
+}
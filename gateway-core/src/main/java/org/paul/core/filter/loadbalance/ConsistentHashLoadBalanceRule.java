@@ -0,0 +1,276 @@
+package org.paul.core.filter.loadbalance;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.cookie.Cookie;
+import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.paul.common.config.Rule;
+import org.paul.common.config.ServiceInstance;
+import org.paul.core.context.GatewayContext;
+import org.paul.core.request.GatewayRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一致性哈希负载均衡
+ * 每个实例在哈希环上放置多个虚拟节点，相同的key总是落到同一个实例上，适合下游有本地缓存的服务
+ * 实例变化时基于旧环增量重建：保留仍然存在的实例的虚拟节点，只为新增实例计算哈希，只有变化实例附近的key会迁移
+ * 有界负载：实例正在处理的请求数超过平均值的LOAD_FACTOR倍时，顺时针溢出到下一个实例，避免热点key压垮单个实例
+ */
+@Slf4j
+public class ConsistentHashLoadBalanceRule extends AbstractLoadBalanceRule {
+
+    //每个实例的虚拟节点数
+    private static final int VIRTUAL_NODES = 160;
+
+    //有界负载系数：单个实例的请求数上限为平均值的1.25倍
+    private static final double LOAD_FACTOR = 1.25d;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    //全部实例和灰度实例分别缓存哈希环
+    private volatile Ring ring;
+
+    private volatile Ring grayRing;
+
+    private ConsistentHashLoadBalanceRule(String serviceId) {
+        super(serviceId);
+    }
+
+    private static ConcurrentHashMap<String, ConsistentHashLoadBalanceRule> serviceMap = new ConcurrentHashMap<>();
+
+    public static ConsistentHashLoadBalanceRule getInstance(String serviceId) {
+        return serviceMap.computeIfAbsent(serviceId, ConsistentHashLoadBalanceRule::new);
+    }
+
+    @Override
+    protected ServiceInstance doChoose(GatewayContext ctx, ServiceInstance[] instances, boolean gray) {
+        String hashKey = resolveHashKey(ctx);
+        if (hashKey == null) {
+            return doChoose(instances, gray);
+        }
+        return getRing(instances, gray).locate(hash(hashKey));
+    }
+
+    @Override
+    protected ServiceInstance doChoose(ServiceInstance[] instances, boolean gray) {
+        //没有请求信息时无法计算key，随机选择
+        return instances[ThreadLocalRandom.current().nextInt(instances.length)];
+    }
+
+    /**
+     * 获取实例数组对应的哈希环，快照变化时基于旧环增量重建
+     */
+    private Ring getRing(ServiceInstance[] instances, boolean gray) {
+        Ring current = gray ? grayRing : ring;
+        if (current == null || current.source != instances) {
+            current = Ring.rebuild(current, instances, gray);
+            if (gray) {
+                grayRing = current;
+            } else {
+                ring = current;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 根据规则加载时解析好的配置从请求中取出哈希key
+     * ip（默认）/ header:名称 / query:名称 / cookie:名称，取不到时使用客户端ip
+     */
+    static String resolveHashKey(GatewayContext ctx) {
+        GatewayRequest request = ctx.getRequest();
+        if (request == null) {
+            return null;
+        }
+        Rule.LoadBalanceConfig config = ctx.getRule() == null ? null : ctx.getRule().getLoadBalanceConfig();
+        String value = null;
+        if (config != null) {
+            switch (config.getHashKeySource()) {
+                case HEADER:
+                    value = request.getHeaders().get(config.getHashKeyName());
+                    break;
+                case QUERY:
+                    List<String> values = request.getQueryParamsMultiple(config.getHashKeyName());
+                    value = values == null || values.isEmpty() ? null : values.get(0);
+                    break;
+                case COOKIE:
+                    value = getCookie(request, config.getHashKeyName());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return StringUtils.isEmpty(value) ? request.getClientIp() : value;
+    }
+
+    private static String getCookie(GatewayRequest request, String name) {
+        String cookieHeader = request.getHeaders().get(HttpHeaderNames.COOKIE);
+        if (cookieHeader == null) {
+            return null;
+        }
+        for (Cookie cookie : ServerCookieDecoder.LAX.decode(cookieHeader)) {
+            if (cookie.name().equals(name)) {
+                return cookie.value();
+            }
+        }
+        return null;
+    }
+
+    static long hash(String key) {
+        return HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * 哈希环，按虚拟节点的哈希值排序，构建后不可变
+     * 实例的统计对象在构建时取出，查找时不再按实例id查map
+     */
+    static class Ring {
+        //构建这个环的实例数组
+        private final ServiceInstance[] source;
+        //虚拟节点的哈希值，升序
+        private final long[] points;
+        //虚拟节点对应的实例
+        private final ServiceInstance[] owners;
+        //虚拟节点对应实例的统计
+        private final ServiceInstanceStats[] ownerStats;
+        //灰度环中每个实例的统计，全部实例的环为null
+        private final ServiceInstanceStats[] graySourceStats;
+
+        private Ring(ServiceInstance[] source, long[] points, ServiceInstance[] owners,
+                     ServiceInstanceStats[] ownerStats, ServiceInstanceStats[] graySourceStats) {
+            this.source = source;
+            this.points = points;
+            this.owners = owners;
+            this.ownerStats = ownerStats;
+            this.graySourceStats = graySourceStats;
+        }
+
+        /**
+         * 基于旧环增量构建新环
+         */
+        static Ring rebuild(Ring previous, ServiceInstance[] instances, boolean gray) {
+            Map<String, ServiceInstance> current = new HashMap<>(instances.length * 2);
+            for (ServiceInstance instance : instances) {
+                current.put(instance.getServiceInstanceId(), instance);
+            }
+
+            //保留仍然存在的实例的虚拟节点，顺序不变，实例对象换成最新的
+            int size = previous == null ? 0 : previous.points.length;
+            long[] keptPoints = new long[size];
+            ServiceInstance[] keptOwners = new ServiceInstance[size];
+            Set<String> existing = new HashSet<>();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                ServiceInstance owner = current.get(previous.owners[i].getServiceInstanceId());
+                if (owner != null) {
+                    keptPoints[kept] = previous.points[i];
+                    keptOwners[kept] = owner;
+                    existing.add(owner.getServiceInstanceId());
+                    kept++;
+                }
+            }
+
+            //只为新增的实例计算虚拟节点
+            TreeMap<Long, ServiceInstance> added = new TreeMap<>();
+            for (ServiceInstance instance : instances) {
+                if (!existing.contains(instance.getServiceInstanceId())) {
+                    for (int i = 0; i < VIRTUAL_NODES; i++) {
+                        added.putIfAbsent(hash(instance.getServiceInstanceId() + "#" + i), instance);
+                    }
+                }
+            }
+
+            //两个有序序列归并
+            long[] points = new long[kept + added.size()];
+            ServiceInstance[] owners = new ServiceInstance[points.length];
+            Iterator<Map.Entry<Long, ServiceInstance>> iterator = added.entrySet().iterator();
+            Map.Entry<Long, ServiceInstance> next = iterator.hasNext() ? iterator.next() : null;
+            int i = 0;
+            int n = 0;
+            while (i < kept || next != null) {
+                if (next == null || (i < kept && keptPoints[i] <= next.getKey())) {
+                    points[n] = keptPoints[i];
+                    owners[n] = keptOwners[i];
+                    i++;
+                } else {
+                    points[n] = next.getKey();
+                    owners[n] = next.getValue();
+                    next = iterator.hasNext() ? iterator.next() : null;
+                }
+                n++;
+            }
+            Map<String, ServiceInstanceStats> statsById = new HashMap<>(instances.length * 2);
+            for (ServiceInstance instance : instances) {
+                statsById.put(instance.getServiceInstanceId(), ServiceInstanceStats.of(instance));
+            }
+            ServiceInstanceStats[] ownerStats = new ServiceInstanceStats[owners.length];
+            for (int j = 0; j < owners.length; j++) {
+                ownerStats[j] = statsById.get(owners[j].getServiceInstanceId());
+            }
+            ServiceInstanceStats[] graySourceStats = null;
+            if (gray) {
+                graySourceStats = new ServiceInstanceStats[instances.length];
+                for (int j = 0; j < instances.length; j++) {
+                    graySourceStats[j] = statsById.get(instances[j].getServiceInstanceId());
+                }
+            }
+            return new Ring(instances, points, owners, ownerStats, graySourceStats);
+        }
+
+        /**
+         * 环中实例正在处理的请求数之和
+         * 全部实例的环直接读取服务的累计值；灰度环只包含少量灰度实例，按实例累加
+         */
+        private long totalInflight() {
+            if (graySourceStats == null) {
+                return ownerStats.length == 0 ? 0 : ownerStats[0].getServiceInflight();
+            }
+            long total = 0;
+            for (ServiceInstanceStats stats : graySourceStats) {
+                total += stats.getInflight();
+            }
+            return total;
+        }
+
+        /**
+         * 从key的哈希值开始顺时针查找，跳过负载超过上限的实例
+         */
+        ServiceInstance locate(long hash) {
+            int start = Arrays.binarySearch(points, hash);
+            if (start < 0) {
+                start = -start - 1;
+            }
+            if (start == points.length) {
+                start = 0;
+            }
+
+            //有界负载：上限为 (总请求数+1)/实例数 * LOAD_FACTOR
+            double capacity = Math.ceil((totalInflight() + 1) * LOAD_FACTOR / source.length);
+
+            Set<ServiceInstance> visited = null;
+            for (int step = 0; step < points.length; step++) {
+                int index = (start + step) % points.length;
+                ServiceInstance owner = owners[index];
+                if (ownerStats[index].getInflight() < capacity) {
+                    return owner;
+                }
+                if (visited == null) {
+                    visited = new HashSet<>();
+                }
+                visited.add(owner);
+                if (visited.size() == source.length) {
+                    break;
+                }
+            }
+            //所有实例都满载时，仍然返回key原本对应的实例
+            return owners[start];
+        }
+    }
+}
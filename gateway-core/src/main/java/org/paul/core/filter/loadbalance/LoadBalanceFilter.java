@@ -1,8 +1,6 @@
 package org.paul.core.filter.loadbalance;
 
-import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.paul.common.config.Rule;
 import org.paul.common.config.ServiceInstance;
 import org.paul.common.enums.ResponseCode;
@@ -12,11 +10,6 @@ import org.paul.core.filter.Filter;
 import org.paul.core.filter.FilterAspect;
 import org.paul.core.request.GatewayRequest;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-
 import static org.paul.common.constants.FilterConst.*;
 
 /**
@@ -35,8 +28,7 @@ public class LoadBalanceFilter implements Filter {
 
 
         //根据上面的rule获取对应的服务器，设置GatewayContext的modifyHost，用于构建发向下游的请求
-        ServiceInstance serviceInstance = gatewayLoadBalanceRule.choose(serviceId, ctx.isGray());
-        System.out.println("当前IP为：" + serviceInstance.getIp() + ",port为：" + serviceInstance.getPort());
+        ServiceInstance serviceInstance = gatewayLoadBalanceRule == null ? null : gatewayLoadBalanceRule.choose(ctx);
 
         //获取发向网关的请求
         GatewayRequest request = ctx.getRequest();
@@ -45,6 +37,9 @@ public class LoadBalanceFilter implements Filter {
         if(serviceInstance != null && request != null){
             String modifyHost = serviceInstance.getIp() + ":"+ serviceInstance.getPort();
             request.setModifyHost(modifyHost);
+            log.debug("service {} choose instance {}", serviceId, modifyHost);
+            //记录选中的实例，路由时据此统计实例的负载
+            ctx.setServiceInstance(serviceInstance);
         }else{
             log.warn("No instance available for: {}", serviceId);
             throw new NotFoundException(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
@@ -53,52 +48,30 @@ public class LoadBalanceFilter implements Filter {
     }
 
     /**
-     * 根据配置获取负载均衡器
+     * 根据规则加载时解析好的配置获取负载均衡器，没有配置时为随机
      * @param ctx
      * @return
      */
     private IGatewayLoadBalanceRule getLoadBalanceRule(GatewayContext ctx) {
-        IGatewayLoadBalanceRule gatewayLoadBalanceRule = null;
         Rule configRule = ctx.getRule();
-        if(configRule != null){
-            //遍历所有rule中的过滤器配置，从中根据id获取负载均衡过滤器
-            Set<Rule.FilterConfig> filterConfigs = configRule.getFilterConfigs();
-            Rule.FilterConfig filterConfig;
-            Iterator iterator = filterConfigs.iterator();
-            while(iterator.hasNext()){
-                filterConfig = (Rule.FilterConfig)iterator.next();
-
-                //如果过滤器的配置为空，直接跳过
-                if(filterConfig == null){
-                    continue;
-                }
-
-                //判断过滤器是不是负载均衡过滤器
-                if(filterConfig.getId().equals(LOAD_BALANCE_FILTER_ID)){
-                    String config = filterConfig.getConfig();
-
-                    //负载均衡策略：随机/轮询，默认为随机
-                    String strategy = LOAD_BALANCE_STRATEGY_RANDOM;
-
-                    //判断config配置是否为空，不为空就将里面配置使用JSON工具转化为Map
-                    if(StringUtils.isNotEmpty(config)){
-                        Map<String, String> mapTypeMap = JSON.parseObject(config, Map.class);
-                        //获取strategy
-                        strategy = mapTypeMap.getOrDefault(LOAD_BALANCE_KEY, strategy);
-                    }
-                    switch (strategy){
-                        case LOAD_BALANCE_STRATEGY_RANDOM:
-                            gatewayLoadBalanceRule = RandomLoadBalanceRule.getInstance(configRule.getServiceId());
-                            break;
-                        case LOAD_BALANCE_STRATEGY_ROUND_ROBIN:
-                            gatewayLoadBalanceRule = RoundRobinLoadBalanceRule.getInstance(configRule.getServiceId());
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            }
+        if (configRule == null) {
+            return null;
+        }
+        Rule.LoadBalanceConfig loadBalanceConfig = configRule.getLoadBalanceConfig();
+        Rule.LoadBalanceConfig.Strategy strategy = loadBalanceConfig == null
+                ? Rule.LoadBalanceConfig.Strategy.RANDOM : loadBalanceConfig.getStrategy();
+        switch (strategy) {
+            case ROUND_ROBIN:
+                return RoundRobinLoadBalanceRule.getInstance(configRule.getServiceId());
+            case WEIGHTED_ROUND_ROBIN:
+                return WeightedRoundRobinLoadBalanceRule.getInstance(configRule.getServiceId());
+            case P2C:
+                return P2CLoadBalanceRule.getInstance(configRule.getServiceId());
+            case CONSISTENT_HASH:
+                return ConsistentHashLoadBalanceRule.getInstance(configRule.getServiceId());
+            case RANDOM:
+            default:
+                return RandomLoadBalanceRule.getInstance(configRule.getServiceId());
         }
-        return gatewayLoadBalanceRule;
     }
 }
@@ -0,0 +1,153 @@
+package org.paul.core.filter.loadbalance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.ServiceInstance;
+import org.paul.common.utils.TimeUtil;
+import org.paul.core.Config;
+import org.paul.core.ConfigLoader;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 被动异常检测
+ * 根据每次转发的结果统计实例的连续失败次数和窗口内失败率，超过阈值时把实例从负载均衡中摘除一段时间
+ * 摘除时间随摘除次数指数增长，到期后自动恢复
+ */
+@Slf4j
+public class OutlierDetector {
+
+    private static final OutlierDetector INSTANCE = new OutlierDetector();
+
+    //摘除状态的版本号，有实例被摘除或者健康状态变化时递增，负载均衡据此刷新可用实例
+    private final AtomicLong epoch = new AtomicLong();
+
+    private OutlierDetector() {
+    }
+
+    public static OutlierDetector getInstance() {
+        return INSTANCE;
+    }
+
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * 主动健康检查更新实例的健康状态
+     *
+     * @param serviceInstance
+     * @param healthy
+     */
+    public void updateHealth(ServiceInstance serviceInstance, boolean healthy) {
+        ServiceInstanceStats stats = ServiceInstanceStats.of(serviceInstance);
+        if (stats.isHealthy() != healthy) {
+            stats.setHealthy(healthy);
+            epoch.incrementAndGet();
+            log.warn("service instance {} health changed to {}", serviceInstance.getServiceInstanceId(), healthy ? "healthy" : "unhealthy");
+        }
+    }
+
+    /**
+     * 记录一次转发结果
+     *
+     * @param serviceInstance
+     * @param stats 发出请求时拿到的统计，实例在请求期间下线时不会重新创建统计
+     * @param error 超时、连接异常或者5xx响应
+     */
+    public void record(ServiceInstance serviceInstance, ServiceInstanceStats stats, boolean error) {
+        Config config = ConfigLoader.getConfig();
+        long now = TimeUtil.currentTimeMillis();
+        if (stats.recordResult(error, now, config.getOutlierIntervalMillis(), config.getOutlierMaxEjectionMillis())
+                && shouldEject(stats, config)) {
+            long ejectionMillis = stats.eject(now, config.getOutlierBaseEjectionMillis(), config.getOutlierMaxEjectionMillis());
+            if (ejectionMillis > 0) {
+                epoch.incrementAndGet();
+                log.warn("eject service instance {} for {}ms", serviceInstance.getServiceInstanceId(), ejectionMillis);
+            }
+        }
+    }
+
+    private boolean shouldEject(ServiceInstanceStats stats, Config config) {
+        if (stats.getConsecutiveErrors() >= config.getOutlierConsecutiveErrors()) {
+            return true;
+        }
+        int requests = stats.getWindowRequests();
+        return requests >= config.getOutlierMinRequests()
+                && stats.getWindowErrors() >= requests * config.getOutlierErrorRateThreshold();
+    }
+
+    /**
+     * 过滤掉被摘除和健康检查不通过的实例
+     * 摘除数量超过上限时，按恢复时间从早到晚放回一部分实例，全部被摘除时返回全部实例
+     *
+     * @param instances
+     * @param now
+     * @return 可用实例和结果的有效期
+     */
+    public AvailableInstances filter(ServiceInstance[] instances, long now) {
+        //先读版本号，过滤期间有新的摘除时，下次请求会重新过滤
+        long currentEpoch = epoch.get();
+        List<ServiceInstance> ejected = null;
+        for (ServiceInstance instance : instances) {
+            if (ServiceInstanceStats.of(instance).isUnavailable(now)) {
+                if (ejected == null) {
+                    ejected = new ArrayList<>();
+                }
+                ejected.add(instance);
+            }
+        }
+        //没有摘除的实例，直接使用原数组，保证负载均衡按数组缓存的结果不失效
+        if (ejected == null) {
+            return new AvailableInstances(instances, instances, currentEpoch, Long.MAX_VALUE);
+        }
+
+        int maxEjected = instances.length * ConfigLoader.getConfig().getOutlierMaxEjectionPercent() / 100;
+        if (ejected.size() > maxEjected) {
+            //恢复时间最晚的实例保持摘除，其余放回
+            ejected.sort(Comparator.comparingLong(instance -> -ServiceInstanceStats.of(instance).getUnavailableUntilMillis()));
+            ejected = ejected.subList(0, maxEjected);
+        }
+        if (ejected.isEmpty()) {
+            return new AvailableInstances(instances, instances, currentEpoch, now + ConfigLoader.getConfig().getOutlierIntervalMillis());
+        }
+
+        long validUntil = Long.MAX_VALUE;
+        List<ServiceInstance> available = new ArrayList<>(instances.length - ejected.size());
+        for (ServiceInstance instance : instances) {
+            if (ejected.contains(instance)) {
+                validUntil = Math.min(validUntil, ServiceInstanceStats.of(instance).getUnavailableUntilMillis());
+            } else {
+                available.add(instance);
+            }
+        }
+        return new AvailableInstances(instances, available.toArray(new ServiceInstance[0]), currentEpoch, validUntil);
+    }
+
+    /**
+     * 过滤后的可用实例
+     */
+    public static class AvailableInstances {
+        //过滤前的实例数组
+        final ServiceInstance[] source;
+        //可用实例
+        final ServiceInstance[] instances;
+        //过滤时的摘除版本号
+        final long epoch;
+        //在这个时间之前（且摘除版本号没有变化）结果都有效
+        final long validUntil;
+
+        AvailableInstances(ServiceInstance[] source, ServiceInstance[] instances, long epoch, long validUntil) {
+            this.source = source;
+            this.instances = instances;
+            this.epoch = epoch;
+            this.validUntil = validUntil;
+        }
+
+        boolean isValid(ServiceInstance[] source, long epoch, long now) {
+            return this.source == source && this.epoch == epoch && now < validUntil;
+        }
+    }
+}
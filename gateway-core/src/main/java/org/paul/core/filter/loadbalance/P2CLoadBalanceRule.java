@@ -0,0 +1,52 @@
+package org.paul.core.filter.loadbalance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.ServiceInstance;
+import org.paul.common.utils.TimeUtil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 两次随机选择（power of two choices）
+ * 随机取两个实例，选择负载分数更低的一个，分数由响应时间EWMA和正在处理的请求数决定
+ * 慢实例、堆积请求的实例会自然地少分到流量，又不会像全局最小值那样让所有请求涌向同一个实例
+ */
+@Slf4j
+public class P2CLoadBalanceRule extends AbstractLoadBalanceRule {
+
+    private P2CLoadBalanceRule(String serviceId) {
+        super(serviceId);
+    }
+
+    private static ConcurrentHashMap<String, P2CLoadBalanceRule> serviceMap = new ConcurrentHashMap<>();
+
+    public static P2CLoadBalanceRule getInstance(String serviceId) {
+        return serviceMap.computeIfAbsent(serviceId, P2CLoadBalanceRule::new);
+    }
+
+    @Override
+    protected ServiceInstance doChoose(ServiceInstance[] instances, boolean gray) {
+        if (instances.length == 1) {
+            return instances[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        //随机取两个不同的实例
+        int first = random.nextInt(instances.length);
+        int second = random.nextInt(instances.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = instances[first];
+        ServiceInstance b = instances[second];
+        double scoreA = ServiceInstanceStats.of(a).score();
+        double scoreB = ServiceInstanceStats.of(b).score();
+        //预热中的实例分数按预热系数放大，少分到流量
+        long now = TimeUtil.currentTimeMillis();
+        if (isWarmingUp(instances, gray, now)) {
+            scoreA /= warmupFactor(a, now);
+            scoreB /= warmupFactor(b, now);
+        }
+        return scoreA <= scoreB ? a : b;
+    }
+}
@@ -1,62 +1,47 @@
 package org.paul.core.filter.loadbalance;
 
 import lombok.extern.slf4j.Slf4j;
-import org.paul.common.config.DynamicConfigManager;
 import org.paul.common.config.ServiceInstance;
-import org.paul.common.enums.ResponseCode;
-import org.paul.common.exception.NotFoundException;
-import org.paul.core.context.GatewayContext;
+import org.paul.common.utils.TimeUtil;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
-public class RoundRobinLoadBalanceRule implements IGatewayLoadBalanceRule{
+public class RoundRobinLoadBalanceRule extends AbstractLoadBalanceRule {
     //当前轮询到的位置
-    private AtomicInteger position = new AtomicInteger(1);
+    private final AtomicInteger position = new AtomicInteger(1);
 
-    private final String serviceId;
-    private Set<ServiceInstance> serviceInstanceSet;
-
-    private RoundRobinLoadBalanceRule( String serviceId) {
-        this.serviceId = serviceId;
+    private RoundRobinLoadBalanceRule(String serviceId) {
+        super(serviceId);
     }
 
     private static ConcurrentHashMap<String,RoundRobinLoadBalanceRule> serviceMap = new ConcurrentHashMap<>();
 
     public static RoundRobinLoadBalanceRule getInstance(String serviceId){
-        RoundRobinLoadBalanceRule loadBalanceRule = serviceMap.get(serviceId);
-        if(loadBalanceRule == null){
-            loadBalanceRule = new RoundRobinLoadBalanceRule(serviceId);
-            serviceMap.put(serviceId,loadBalanceRule);
-        }
-        return loadBalanceRule;
-    }
-
-    @Override
-    public ServiceInstance choose(GatewayContext ctx) {
-        return choose(ctx.getUniqueId(), ctx.isGray());
+        return serviceMap.computeIfAbsent(serviceId, RoundRobinLoadBalanceRule::new);
     }
 
     @Override
-    public ServiceInstance choose(String serviceId, boolean gray) {
-        //可能存在延迟加载，因为是每秒去轮询获取注册中的实例，所以这里再次加载
-        serviceInstanceSet = DynamicConfigManager.getInstance().getServiceInstanceByUniqueId(serviceId, gray);
-
-        if(serviceInstanceSet.isEmpty()){
-            //注册中心真的没有对应的service实例
-            log.warn("No instance available for: {}", serviceId);
-            throw new NotFoundException(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
+    protected ServiceInstance doChoose(ServiceInstance[] instances, boolean gray) {
+        //溢出后去掉符号位，保证下标非负
+        int pos = this.position.getAndIncrement() & Integer.MAX_VALUE;
+        ServiceInstance instance = instances[pos % instances.length];
+        long now = TimeUtil.currentTimeMillis();
+        if (!isWarmingUp(instances, gray, now)) {
+            return instance;
         }
-        List<ServiceInstance> instances = new ArrayList<ServiceInstance>(serviceInstanceSet);
-        if(instances.isEmpty()){
-            return null;
-        }else {
-            int pos = Math.abs(this.position.incrementAndGet());
-            return instances.get(pos % instances.size());
+
+        //有实例在预热时，轮到预热中的实例按预热系数的概率选中，否则顺延到下一个实例
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < instances.length; i++) {
+            //pos接近Integer.MAX_VALUE时相加会溢出，同样去掉符号位
+            ServiceInstance candidate = instances[((pos + i) & Integer.MAX_VALUE) % instances.length];
+            if (random.nextDouble() < warmupFactor(candidate, now)) {
+                return candidate;
+            }
         }
+        return instance;
     }
 }
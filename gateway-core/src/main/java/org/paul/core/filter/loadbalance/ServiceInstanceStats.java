@@ -0,0 +1,211 @@
+package org.paul.core.filter.loadbalance;
+
+import org.paul.common.config.ServiceInstance;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务实例的实时统计：正在处理的请求数和响应时间的指数加权移动平均（EWMA）
+ * 由RouterFilter在请求发出和完成时更新，供负载均衡根据实例负载选择
+ * 实例从注册中心下线后删除，重新注册的实例从新的统计开始
+ */
+public class ServiceInstanceStats {
+
+    //EWMA的衰减时间常数，超过这个时间的历史响应时间影响基本消失
+    private static final double DECAY_NANOS = 10_000_000_000d;
+
+    private static final ConcurrentHashMap<String /* serviceInstanceId */, ServiceInstanceStats> statsMap = new ConcurrentHashMap<>();
+
+    //服务所有实例正在处理的请求数之和，数量和服务数一致
+    private static final ConcurrentHashMap<String /* uniqueId */, AtomicInteger> serviceInflightMap = new ConcurrentHashMap<>();
+
+    //正在处理的请求数
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    //实例所属服务的请求数之和，和同一个服务的其他实例共享
+    private final AtomicInteger serviceInflight;
+
+    //响应时间的EWMA，单位纳秒
+    private volatile double ewmaNanos;
+
+    //上一次更新EWMA的时间
+    private long lastUpdateNanos = System.nanoTime();
+
+    //连续失败次数
+    private final AtomicInteger consecutiveErrors = new AtomicInteger();
+
+    //当前统计窗口内的请求数和失败数
+    private final AtomicInteger windowRequests = new AtomicInteger();
+
+    private final AtomicInteger windowErrors = new AtomicInteger();
+
+    //当前统计窗口的开始时间
+    private volatile long windowStartMillis;
+
+    //摘除到什么时候，0表示没有被摘除过
+    private volatile long ejectedUntilMillis;
+
+    //累计摘除次数，决定下一次摘除的时长
+    private int ejectionCount;
+
+    //主动健康检查的结果，不健康的实例不参与负载均衡
+    private volatile boolean healthy = true;
+
+    private ServiceInstanceStats(AtomicInteger serviceInflight) {
+        this.serviceInflight = serviceInflight;
+    }
+
+    public static ServiceInstanceStats of(ServiceInstance serviceInstance) {
+        return statsMap.computeIfAbsent(serviceInstance.getServiceInstanceId(), k -> new ServiceInstanceStats(
+                serviceInflightMap.computeIfAbsent(String.valueOf(serviceInstance.getUniqueId()), u -> new AtomicInteger())));
+    }
+
+    /**
+     * 实例下线，删除统计
+     *
+     * @param serviceInstance
+     */
+    public static void remove(ServiceInstance serviceInstance) {
+        statsMap.remove(serviceInstance.getServiceInstanceId());
+    }
+
+    /**
+     * 请求发出
+     */
+    public void onStart() {
+        inflight.incrementAndGet();
+        serviceInflight.incrementAndGet();
+    }
+
+    /**
+     * 请求完成，记录响应时间
+     *
+     * @param latencyNanos
+     */
+    public void onComplete(long latencyNanos) {
+        inflight.decrementAndGet();
+        serviceInflight.decrementAndGet();
+        updateEwma(latencyNanos);
+    }
+
+    /**
+     * 按时间衰减更新EWMA：距离上次更新越久，旧值的权重越小，实例恢复后能很快被重新选中
+     */
+    private synchronized void updateEwma(long latencyNanos) {
+        long now = System.nanoTime();
+        double weight = Math.exp(-(now - lastUpdateNanos) / DECAY_NANOS);
+        lastUpdateNanos = now;
+        ewmaNanos = ewmaNanos * weight + latencyNanos * (1 - weight);
+    }
+
+    /**
+     * 记录一次转发结果，用于异常检测
+     *
+     * @return 是否需要检查摘除条件：本次失败且实例当前没有被摘除
+     */
+    boolean recordResult(boolean error, long now, long intervalMillis, long maxEjectionMillis) {
+        //统计窗口到期后重新计数
+        if (now - windowStartMillis >= intervalMillis) {
+            windowStartMillis = now;
+            windowRequests.set(0);
+            windowErrors.set(0);
+        }
+        windowRequests.incrementAndGet();
+        if (!error) {
+            consecutiveErrors.set(0);
+            //恢复后长时间稳定，摘除次数清零，下一次摘除重新从基础时长开始
+            if (ejectionCount > 0 && now - ejectedUntilMillis > maxEjectionMillis) {
+                synchronized (this) {
+                    ejectionCount = 0;
+                }
+            }
+            return false;
+        }
+        consecutiveErrors.incrementAndGet();
+        windowErrors.incrementAndGet();
+        return !isEjected(now);
+    }
+
+    /**
+     * 摘除实例，时长为 基础时长 * 2^(摘除次数-1)，不超过最长时长
+     *
+     * @return 本次摘除的时长，已经被摘除时返回0
+     */
+    synchronized long eject(long now, long baseEjectionMillis, long maxEjectionMillis) {
+        if (isEjected(now)) {
+            return 0;
+        }
+        ejectionCount++;
+        long ejectionMillis = Math.min(maxEjectionMillis, baseEjectionMillis << Math.min(ejectionCount - 1, 20));
+        ejectedUntilMillis = now + ejectionMillis;
+        consecutiveErrors.set(0);
+        windowRequests.set(0);
+        windowErrors.set(0);
+        return ejectionMillis;
+    }
+
+    public boolean isEjected(long now) {
+        return now < ejectedUntilMillis;
+    }
+
+    public long getEjectedUntilMillis() {
+        return ejectedUntilMillis;
+    }
+
+    /**
+     * 实例是否不可用：被异常检测摘除，或者主动健康检查不通过
+     */
+    public boolean isUnavailable(long now) {
+        return !healthy || isEjected(now);
+    }
+
+    /**
+     * 实例不可用到什么时候，健康检查不通过时直到恢复为止
+     */
+    public long getUnavailableUntilMillis() {
+        return healthy ? ejectedUntilMillis : Long.MAX_VALUE;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public int getConsecutiveErrors() {
+        return consecutiveErrors.get();
+    }
+
+    public int getWindowRequests() {
+        return windowRequests.get();
+    }
+
+    public int getWindowErrors() {
+        return windowErrors.get();
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * 实例所属服务所有实例正在处理的请求数之和
+     */
+    public int getServiceInflight() {
+        return serviceInflight.get();
+    }
+
+    public double getEwmaNanos() {
+        return ewmaNanos;
+    }
+
+    /**
+     * 负载分数，越小越空闲：响应时间越长、正在处理的请求越多，分数越高
+     */
+    public double score() {
+        return (ewmaNanos + 1) * (inflight.get() + 1);
+    }
+}
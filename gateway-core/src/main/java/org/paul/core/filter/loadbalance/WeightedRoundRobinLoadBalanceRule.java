@@ -0,0 +1,158 @@
+package org.paul.core.filter.loadbalance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.paul.common.config.ServiceInstance;
+import org.paul.common.constants.GatewayConst;
+import org.paul.common.utils.TimeUtil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平滑加权轮询（Nginx的smooth weighted round-robin）
+ * 实例快照变化时，按权重一次性算出一个完整周期的选择序列，请求时只需要原子递增下标，不加锁
+ * 例如权重 a=5,b=1,c=1，序列为 a a b a c a a，权重大的实例不会被连续集中选择
+ */
+@Slf4j
+public class WeightedRoundRobinLoadBalanceRule extends AbstractLoadBalanceRule {
+
+    //一个周期的最大长度，权重总和超过时按比例缩小权重
+    private static final int MAX_SCHEDULE_LENGTH = 4096;
+
+    //有实例预热时，选择序列的重建间隔，让有效权重跟着预热进度增长
+    private static final long WARMUP_REBUILD_INTERVAL_MILLIS = 1000;
+
+    //当前轮询到的位置
+    private final AtomicInteger position = new AtomicInteger(0);
+
+    //全部实例和灰度实例分别缓存选择序列
+    private volatile Schedule schedule;
+
+    private volatile Schedule graySchedule;
+
+    private WeightedRoundRobinLoadBalanceRule(String serviceId) {
+        super(serviceId);
+    }
+
+    private static ConcurrentHashMap<String, WeightedRoundRobinLoadBalanceRule> serviceMap = new ConcurrentHashMap<>();
+
+    public static WeightedRoundRobinLoadBalanceRule getInstance(String serviceId) {
+        return serviceMap.computeIfAbsent(serviceId, WeightedRoundRobinLoadBalanceRule::new);
+    }
+
+    @Override
+    protected ServiceInstance doChoose(ServiceInstance[] instances, boolean gray) {
+        Schedule current = gray ? graySchedule : schedule;
+        long now = TimeUtil.currentTimeMillis();
+        //快照变化或者预热中的权重需要更新时重新计算，多个线程同时计算结果相同，后写入的覆盖即可
+        if (current == null || current.source != instances || now >= current.rebuildAt) {
+            boolean warmingUp = isWarmingUp(instances, gray, now);
+            long rebuildAt = warmingUp ? now + WARMUP_REBUILD_INTERVAL_MILLIS : Long.MAX_VALUE;
+            current = new Schedule(instances, buildSchedule(instances, warmingUp ? now : 0), rebuildAt);
+            if (gray) {
+                graySchedule = current;
+            } else {
+                schedule = current;
+            }
+        }
+        ServiceInstance[] sequence = current.sequence;
+        //溢出后去掉符号位，保证下标非负
+        int pos = position.getAndIncrement() & Integer.MAX_VALUE;
+        return sequence[pos % sequence.length];
+    }
+
+    /**
+     * 按平滑加权轮询算法生成一个周期的选择序列
+     *
+     * @param instances
+     * @param warmupNow 大于0时按这个时间的预热系数折算权重
+     * @return
+     */
+    static ServiceInstance[] buildSchedule(ServiceInstance[] instances, long warmupNow) {
+        int[] weights = new int[instances.length];
+        long total = 0;
+        for (int i = 0; i < instances.length; i++) {
+            weights[i] = weightOf(instances[i]);
+            if (warmupNow > 0 && weights[i] > 0) {
+                weights[i] = (int) Math.max(1, Math.round(weights[i] * warmupFactor(instances[i], warmupNow)));
+            }
+            total += weights[i];
+        }
+        //权重都不可用时，退化为普通轮询
+        if (total == 0) {
+            return instances.clone();
+        }
+
+        //先用最大公约数约分，周期仍然太长时按比例缩小
+        int gcd = 0;
+        for (int weight : weights) {
+            gcd = gcd(gcd, weight);
+        }
+        total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= gcd;
+            total += weights[i];
+        }
+        if (total > MAX_SCHEDULE_LENGTH) {
+            long scaledTotal = 0;
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] > 0) {
+                    weights[i] = (int) Math.max(1, (long) weights[i] * MAX_SCHEDULE_LENGTH / total);
+                }
+                scaledTotal += weights[i];
+            }
+            total = scaledTotal;
+        }
+
+        ServiceInstance[] sequence = new ServiceInstance[(int) total];
+        long[] current = new long[weights.length];
+        for (int n = 0; n < sequence.length; n++) {
+            int best = -1;
+            for (int i = 0; i < weights.length; i++) {
+                current[i] += weights[i];
+                if (weights[i] > 0 && (best < 0 || current[i] > current[best])) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            sequence[n] = instances[best];
+        }
+        return sequence;
+    }
+
+    /**
+     * 获取实例权重，没有配置时使用默认权重，小于0按0处理
+     */
+    static int weightOf(ServiceInstance instance) {
+        Integer weight = instance.getWeight();
+        if (weight == null) {
+            return GatewayConst.DEFAULT_WEIGHT;
+        }
+        return Math.max(0, weight);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * 实例数组和由它生成的选择序列
+     */
+    private static class Schedule {
+        private final ServiceInstance[] source;
+        private final ServiceInstance[] sequence;
+        //到这个时间需要重新计算，没有实例预热时为Long.MAX_VALUE
+        private final long rebuildAt;
+
+        private Schedule(ServiceInstance[] source, ServiceInstance[] sequence, long rebuildAt) {
+            this.source = source;
+            this.sequence = sequence;
+            this.rebuildAt = rebuildAt;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.paul.core.filter.monitor;
 import com.alibaba.nacos.client.naming.utils.RandomUtils;
 
 
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
@@ -31,6 +32,8 @@ public class MonitorEndFilter implements Filter {
 
     public MonitorEndFilter() {
         this.prometheusMeterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        //其他模块（如健康检查）注册在全局注册表中的指标，也通过这个注册表暴露
+        Metrics.addRegistry(prometheusMeterRegistry);
 
         try{
             //暴露接口，提供给普罗米修斯拉取数据
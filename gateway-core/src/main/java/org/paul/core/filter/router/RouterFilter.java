@@ -1,6 +1,8 @@
 package org.paul.core.filter.router;
 
 import com.netflix.hystrix.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.asynchttpclient.Request;
 import org.asynchttpclient.Response;
@@ -12,6 +14,9 @@ import org.paul.core.ConfigLoader;
 import org.paul.core.context.GatewayContext;
 import org.paul.core.filter.Filter;
 import org.paul.core.filter.FilterAspect;
+import org.paul.core.filter.concurrency.ConcurrencyPermit;
+import org.paul.core.filter.loadbalance.OutlierDetector;
+import org.paul.core.filter.loadbalance.ServiceInstanceStats;
 import org.paul.core.helper.AsyncHttpHelper;
 import org.paul.core.helper.ResponseHelper;
 import org.paul.core.response.GatewayResponse;
@@ -31,7 +36,8 @@ import static org.paul.common.constants.FilterConst.*;
  */
 @FilterAspect(id = ROUTER_FILTER_ID,
         name = ROUTER_FILTER_NAME,
-        order = ROUTER_BALANCE_FILTER_ORDER
+        order = ROUTER_BALANCE_FILTER_ORDER,
+        blocking = true
 )
 @Slf4j
 public class RouterFilter implements Filter {
@@ -48,7 +54,8 @@ public class RouterFilter implements Filter {
         //使用自定义的方法获取rule中的HystrixConfig熔断配置，使用Optional进行包装
         Optional<Rule.HystrixConfig> hystrixConfig = getHystrixConfig(gatewayContext);
         //不一定每个接口都要走熔断，首先判断HystrixConfig熔断配置是否存在，存在：走有熔断的方法，不存在：走正常的重试
-        if (hystrixConfig.isPresent()) {
+        //流式响应不走熔断：Hystrix的超时针对整个响应，长时间的流式下载会被误判为超时
+        if (hystrixConfig.isPresent() && !gatewayContext.getRule().isResponseStreaming()) {
             routeWithHystrix(gatewayContext, hystrixConfig);
         } else {
             route(gatewayContext, hystrixConfig);
@@ -56,6 +63,15 @@ public class RouterFilter implements Filter {
     }
 
 
+    /**
+     * 有熔断配置时，HystrixCommand.execute会阻塞当前线程等待结果，不能在事件循环中执行；没有熔断配置时是异步的
+     */
+    @Override
+    public boolean isBlocking(GatewayContext gatewayContext) {
+        return !gatewayContext.getRule().isResponseStreaming() && getHystrixConfig(gatewayContext).isPresent();
+    }
+
+
     /**
      * 定义route方法，没有熔断配置时，就是原来的路由转发的代码
      * 在这段代码中还需要再次判断是否有熔断配置，没有才进行重试
@@ -63,11 +79,48 @@ public class RouterFilter implements Filter {
      * @param gatewayContext
      * @param hystrixConfig
      */
-    private CompletableFuture<Response> route(GatewayContext gatewayContext, Optional<Rule.HystrixConfig> hystrixConfig) {
+    private CompletableFuture<?> route(GatewayContext gatewayContext, Optional<Rule.HystrixConfig> hystrixConfig) {
         //获取request对象（真正发送给下游服务时使用）
         Request request = gatewayContext.getRequest().build();
+        //请求体直接引用原始ByteBuf，发送期间保留，下游请求结束后释放
+        ByteBuf content = gatewayContext.getRequest().retainContent();
+        //开启了流式响应的规则，响应头和响应体分块直接写回客户端，不再聚合完整的响应
+        StreamingResponseHandler streamingHandler = gatewayContext.getRule().isResponseStreaming()
+                ? new StreamingResponseHandler(gatewayContext) : null;
+        //统计选中实例正在处理的请求数和响应时间，供负载均衡使用
+        ServiceInstanceStats instanceStats = gatewayContext.getServiceInstance() == null
+                ? null : ServiceInstanceStats.of(gatewayContext.getServiceInstance());
+        //并发限制的延迟从发出请求开始计算
+        ConcurrencyPermit concurrencyPermit = gatewayContext.getConcurrencyPermit();
+        long startNanos = System.nanoTime();
+        if (instanceStats != null) {
+            instanceStats.onStart();
+        }
+        if (concurrencyPermit != null) {
+            concurrencyPermit.onRouteStart();
+        }
         //调用自定义AsyncHttpHelper，首先获取实例，然后执行request，返回Future对象
-        CompletableFuture<Response> future = AsyncHttpHelper.getInstance().executeRequest(request);
+        CompletableFuture<?> future;
+        try {
+            future = streamingHandler == null
+                    ? AsyncHttpHelper.getInstance().executeRequest(request)
+                    : AsyncHttpHelper.getInstance().executeRequest(request, streamingHandler);
+        } catch (Throwable t) {
+            ReferenceCountUtil.release(content);
+            if (instanceStats != null) {
+                instanceStats.onComplete(System.nanoTime() - startNanos);
+            }
+            throw t;
+        }
+        future.whenComplete((result, throwable) -> {
+            ReferenceCountUtil.release(content);
+            if (instanceStats != null) {
+                instanceStats.onComplete(System.nanoTime() - startNanos);
+                //被动异常检测：超时、连接异常、5xx记为失败
+                OutlierDetector.getInstance().record(gatewayContext.getServiceInstance(), instanceStats,
+                        isUpstreamError(result, throwable, streamingHandler));
+            }
+        });
 
         //拿到配置：通过configLoader获取config的单双异步配置信息
         boolean whenComplete = ConfigLoader.getConfig().isWhenComplete();
@@ -77,20 +130,56 @@ public class RouterFilter implements Filter {
             //调用future的whencomplete，传入闭包，参数时response，throwable
             //封装方法complete，参数：请求，响应，throwable，gatewaycontext上下文
             //在这段代码中还需要再次判断是否有熔断配置，没有才进行重试
-            future.whenComplete((response, throwable) -> {
-                complete(request, response, throwable, gatewayContext, hystrixConfig);
+            future.whenComplete((result, throwable) -> {
+                onRouteComplete(request, result, throwable, gatewayContext, hystrixConfig, streamingHandler);
             });
             //双异步
         } else {
             //调用future的whencomplete，传入闭包，参数时response，throwable
             //封装方法complete，参数：请求，响应，throwable，gatewaycontext上下文
-            future.whenCompleteAsync((response, throwable) -> {
-                complete(request, response, throwable, gatewayContext, hystrixConfig);
+            future.whenCompleteAsync((result, throwable) -> {
+                onRouteComplete(request, result, throwable, gatewayContext, hystrixConfig, streamingHandler);
             });
         }
         return future;
     }
 
+    /**
+     * 判断下游实例是否出错：超时、IO异常或者5xx响应
+     */
+    private static boolean isUpstreamError(Object result, Throwable throwable, StreamingResponseHandler streamingHandler) {
+        if (throwable != null) {
+            return isTransportError(throwable);
+        }
+        int statusCode = streamingHandler != null ? streamingHandler.getStatusCode() : ((Response) result).getStatusCode();
+        return statusCode >= 500;
+    }
+
+    /**
+     * 超时或者连接异常
+     */
+    private static boolean isTransportError(Throwable throwable) {
+        return throwable instanceof TimeoutException || throwable instanceof IOException;
+    }
+
+    /**
+     * 根据是否流式响应，分发下游请求的结果
+     */
+    private void onRouteComplete(Request request, Object result, Throwable throwable, GatewayContext gatewayContext,
+                                 Optional<Rule.HystrixConfig> hystrixConfig, StreamingResponseHandler streamingHandler) {
+        //并发名额在complete中释放请求资源时归还，先记录这一次下游请求是否出错
+        ConcurrencyPermit concurrencyPermit = gatewayContext.getConcurrencyPermit();
+        if (concurrencyPermit != null) {
+            //只有超时和连接异常说明下游在排队或者过载，5xx可能是应用自身的错误，不作为并发限制的回退信号
+            concurrencyPermit.onRouteComplete(isTransportError(throwable));
+        }
+        if (streamingHandler == null) {
+            complete(request, (Response) result, throwable, gatewayContext, hystrixConfig);
+        } else {
+            completeStreaming(request, throwable, gatewayContext, hystrixConfig, streamingHandler);
+        }
+    }
+
     /**
      * 获取熔断配置
      *
@@ -164,9 +253,6 @@ public class RouterFilter implements Filter {
      * @param gatewayContext
      */
     void complete(Request request, Response response, Throwable throwable, GatewayContext gatewayContext, Optional<Rule.HystrixConfig> hystrixConfig) {
-        //释放资源
-        gatewayContext.releaseRequest();
-
         //获取当前上下文的重试次数
         Rule rule = gatewayContext.getRule();
 
@@ -185,6 +271,9 @@ public class RouterFilter implements Filter {
             return;
         }
 
+        //不再重试后才释放资源，重试时需要再次发送原始请求体
+        gatewayContext.releaseRequest();
+
         try {
             //判断是否有异常
             if (Objects.nonNull(throwable)) {
@@ -211,15 +300,62 @@ public class RouterFilter implements Filter {
             gatewayContext.writtened();
             ResponseHelper.writeResponse(gatewayContext);
 
-            accessLog.info("{} {} {} {} {} {} {}",
-                    System.currentTimeMillis() - gatewayContext.getRequest().getBeginTime(),
-                    gatewayContext.getRequest().getClientIp(),
-                    gatewayContext.getRequest().getUniqueId(),
-                    gatewayContext.getRequest().getMethod(),
-                    gatewayContext.getRequest().getPath(),
-                    gatewayContext.getResponse().getHttpResponseStatus().code(),
-                    gatewayContext.getResponse().getFutureResponse().getResponseBodyAsBytes().length);
+            GatewayResponse gatewayResponse = gatewayContext.getResponse();
+            long bodyLength;
+            if (gatewayResponse.getFutureResponse() != null) {
+                bodyLength = gatewayResponse.getFutureResponse().getResponseBodyAsBytes().length;
+            } else {
+                //网关自己构造的失败响应没有下游的Response
+                bodyLength = gatewayResponse.getContent() == null ? 0 : gatewayResponse.getContent().length();
+            }
+            accessLog(gatewayContext, gatewayResponse.getHttpResponseStatus().code(), bodyLength);
+        }
+    }
+
+    /**
+     * 处理流式响应的结果，响应已经由StreamingResponseHandler写回客户端
+     *
+     * @param request
+     * @param throwable
+     * @param gatewayContext
+     * @param hystrixConfig
+     * @param streamingHandler
+     */
+    void completeStreaming(Request request, Throwable throwable, GatewayContext gatewayContext,
+                           Optional<Rule.HystrixConfig> hystrixConfig, StreamingResponseHandler streamingHandler) {
+        //响应头还没有写回客户端，和普通请求一样进行重试或返回错误响应
+        if (throwable != null && !streamingHandler.isHeadersSent()) {
+            complete(request, null, throwable, gatewayContext, hystrixConfig);
+            return;
+        }
+
+        //释放资源
+        gatewayContext.releaseRequest();
+
+        //响应已经写了一部分，只能关闭连接，让客户端感知到响应不完整
+        if (throwable != null) {
+            log.warn("streaming response broken {}", request.getUrl(), throwable);
+            gatewayContext.setThrowable(new ConnectException(throwable, gatewayContext.getUniqueId(), request.getUrl(), ResponseCode.HTTP_RESPONSE_ERROR));
+            gatewayContext.getNettyCtx().close();
         }
+        gatewayContext.completed();
+        gatewayContext.invokeCompletedCallBack();
+
+        accessLog(gatewayContext, streamingHandler.getStatusCode(), streamingHandler.getBodyBytes());
+    }
+
+    /**
+     * 打印访问日志
+     */
+    private void accessLog(GatewayContext gatewayContext, int status, long bodyLength) {
+        accessLog.info("{} {} {} {} {} {} {}",
+                System.currentTimeMillis() - gatewayContext.getRequest().getBeginTime(),
+                gatewayContext.getRequest().getClientIp(),
+                gatewayContext.getRequest().getUniqueId(),
+                gatewayContext.getRequest().getMethod(),
+                gatewayContext.getRequest().getPath(),
+                status,
+                bodyLength);
     }
 
     /**
@@ -0,0 +1,147 @@
+package org.paul.core.filter.router;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseHeaders;
+import org.asynchttpclient.handler.StreamedAsyncHandler;
+import org.paul.core.context.GatewayContext;
+import org.paul.core.netty.NettyServerConnectManagerHandler;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * 流式响应处理器
+ * 下游的状态行和响应头一到达就写回客户端，响应体按分块转发，不在网关中聚合完整响应
+ * 反压：客户端channel可写时才向下游请求下一个分块，写缓冲超过高水位后等channelWritabilityChanged再请求，
+ * 没有请求时下游连接不再读取，网关中每个请求积压的数据不超过客户端channel的写缓冲高水位
+ * 分块直接包装AsyncHttpClient给出的缓冲写回客户端，网关中不再复制
+ */
+@Slf4j
+public class StreamingResponseHandler implements StreamedAsyncHandler<Void> {
+
+    private final GatewayContext gatewayContext;
+
+    private final ChannelHandlerContext nettyCtx;
+
+    // 下游返回的状态码
+    @Getter
+    private volatile int statusCode;
+
+    // 响应头是否已经写回客户端，写回之后出现异常只能关闭连接
+    @Getter
+    private volatile boolean headersSent;
+
+    // 已经转发的响应体字节数
+    @Getter
+    private volatile long bodyBytes;
+
+    public StreamingResponseHandler(GatewayContext gatewayContext) {
+        this.gatewayContext = gatewayContext;
+        this.nettyCtx = gatewayContext.getNettyCtx();
+    }
+
+    @Override
+    public State onStatusReceived(org.asynchttpclient.HttpResponseStatus responseStatus) {
+        this.statusCode = responseStatus.getStatusCode();
+        return State.CONTINUE;
+    }
+
+    @Override
+    public State onHeadersReceived(HttpResponseHeaders headers) {
+        HttpResponse httpResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(statusCode));
+        httpResponse.headers().add(headers.getHeaders());
+        // 连接相关的头由网关自己决定
+        httpResponse.headers().remove(HttpHeaderNames.CONNECTION);
+        if (!HttpUtil.isContentLengthSet(httpResponse)) {
+            HttpUtil.setTransferEncodingChunked(httpResponse, true);
+        }
+        //短连接：告诉客户端响应结束后连接会关闭，和onCompleted中的关闭对应
+        httpResponse.headers().set(HttpHeaderNames.CONNECTION,
+                gatewayContext.isKeepAlive() ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+        headersSent = true;
+        nettyCtx.writeAndFlush(httpResponse);
+        return State.CONTINUE;
+    }
+
+    @Override
+    public State onStream(Publisher<HttpResponseBodyPart> publisher) {
+        publisher.subscribe(new Subscriber<HttpResponseBodyPart>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                this.subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(HttpResponseBodyPart bodyPart) {
+                writeBodyPart(bodyPart).addListener(future -> {
+                    if (!future.isSuccess()) {
+                        subscription.cancel();
+                    }
+                });
+                //在写入之后执行，此时分块已经计入写缓冲
+                nettyCtx.executor().execute(() -> {
+                    Channel channel = nettyCtx.channel();
+                    NettyServerConnectManagerHandler.whenWritable(channel, () -> {
+                        if (channel.isActive()) {
+                            subscription.request(1);
+                        } else {
+                            subscription.cancel();
+                        }
+                    });
+                });
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                // 异常由onThrowable统一处理
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return State.CONTINUE;
+    }
+
+    /**
+     * StreamedAsyncHandler的响应体由onStream的Publisher交付，下游连接只按订阅的需求读取，反压在onNext中处理
+     * 这个方法只在onStream没有接管响应体时调用，这个版本的AsyncHandler.State没有暂停下游读取的状态
+     */
+    @Override
+    public State onBodyPartReceived(HttpResponseBodyPart bodyPart) {
+        writeBodyPart(bodyPart);
+        return State.CONTINUE;
+    }
+
+    @Override
+    public void onThrowable(Throwable t) {
+        // 异常通过future传给RouterFilter处理
+    }
+
+    @Override
+    public Void onCompleted() {
+        ChannelFuture future = nettyCtx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        //短连接：写完后关闭
+        if (!gatewayContext.isKeepAlive()) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+        return null;
+    }
+
+    private ChannelFuture writeBodyPart(HttpResponseBodyPart bodyPart) {
+        bodyBytes += bodyPart.length();
+        //包装分块已有的缓冲，不复制
+        return nettyCtx.writeAndFlush(new DefaultHttpContent(Unpooled.wrappedBuffer(bodyPart.getBodyByteBuffer())));
+    }
+}
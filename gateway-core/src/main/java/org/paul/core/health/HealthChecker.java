@@ -0,0 +1,189 @@
+package org.paul.core.health;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
+import org.paul.common.config.DynamicConfigManager;
+import org.paul.common.config.ServiceInstance;
+import org.paul.core.Config;
+import org.paul.core.LifeCycle;
+import org.paul.core.filter.loadbalance.OutlierDetector;
+import org.paul.core.filter.loadbalance.ServiceInstanceStats;
+import org.paul.core.helper.AsyncHttpHelper;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主动健康检查
+ * 定时通过http探测注册中心中的每个服务实例，连续失败达到阈值标记为不健康，负载均衡跳过不健康的实例
+ * 弥补注册中心轮询间隔带来的延迟：实例在注册中心中还在，但是已经不能提供服务
+ * 调度和状态都在一个单独的EventLoop中，探测请求复用网关的AsyncHttpClient
+ */
+@Slf4j
+public class HealthChecker implements LifeCycle {
+
+    private final Config config;
+
+    //健康检查专用的单线程EventLoop
+    private EventLoop eventLoop;
+
+    //以下状态只在eventLoop中访问
+    //正在探测的实例，避免同一个实例的探测重叠
+    private final Set<String> probing = new HashSet<>();
+
+    //每个实例连续成功、连续失败的次数，正数表示连续成功，负数表示连续失败
+    private final Map<String, Integer> streaks = new HashMap<>();
+
+    //已经注册的健康状态指标
+    private final Map<String, Gauge> gauges = new HashMap<>();
+
+    public HealthChecker(Config config) {
+        this.config = config;
+        init();
+    }
+
+    @Override
+    public void init() {
+        this.eventLoop = new DefaultEventLoop(new DefaultThreadFactory("gateway-health-check"));
+    }
+
+    @Override
+    public void start() {
+        if (!config.isHealthCheckEnabled()) {
+            return;
+        }
+        eventLoop.scheduleWithFixedDelay(this::checkAll,
+                config.getHealthCheckIntervalMillis(), config.getHealthCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+        log.info("health checker started, interval {}ms, path {}", config.getHealthCheckIntervalMillis(), config.getHealthCheckPath());
+    }
+
+    @Override
+    public void shutdown() {
+        eventLoop.shutdownGracefully();
+    }
+
+    /**
+     * 探测所有服务的所有实例
+     */
+    private void checkAll() {
+        try {
+            DynamicConfigManager manager = DynamicConfigManager.getInstance();
+            Map<String, ServiceInstance> current = new HashMap<>();
+            for (String uniqueId : manager.getServiceDefinitionMap().keySet()) {
+                for (ServiceInstance instance : manager.getServiceInstanceSnapshot(uniqueId).getInstances(false)) {
+                    current.put(instance.getServiceInstanceId(), instance);
+                }
+            }
+            for (ServiceInstance instance : current.values()) {
+                registerGauge(instance);
+                if (probing.add(instance.getServiceInstanceId())) {
+                    probe(instance);
+                }
+            }
+            removeDeparted(current);
+        } catch (Throwable t) {
+            log.error("health check error", t);
+        }
+    }
+
+    private void probe(ServiceInstance instance) {
+        Request request = new RequestBuilder("GET")
+                .setUrl("http://" + instance.getIp() + ":" + instance.getPort() + config.getHealthCheckPath())
+                .setRequestTimeout(config.getHealthCheckTimeoutMillis())
+                .build();
+        try {
+            AsyncHttpHelper.getInstance().executeRequest(request)
+                    .whenComplete((response, throwable) -> {
+                        boolean success = throwable == null
+                                && response.getStatusCode() >= 200 && response.getStatusCode() < 300;
+                        //回到健康检查的EventLoop中更新状态
+                        eventLoop.execute(() -> onProbeResult(instance, success));
+                    });
+        } catch (Throwable t) {
+            log.warn("health check probe error {}", instance.getServiceInstanceId(), t);
+            onProbeResult(instance, false);
+        }
+    }
+
+    private void onProbeResult(ServiceInstance instance, boolean success) {
+        String instanceId = instance.getServiceInstanceId();
+        probing.remove(instanceId);
+        //探测期间实例已经下线，丢弃结果，避免给下线的实例重新创建不健康的状态
+        if (!gauges.containsKey(instanceId)) {
+            return;
+        }
+        int streak = streaks.getOrDefault(instanceId, 0);
+        if (success) {
+            streak = streak > 0 ? streak + 1 : 1;
+            if (streak >= config.getHealthCheckHealthyThreshold()) {
+                OutlierDetector.getInstance().updateHealth(instance, true);
+            }
+        } else {
+            streak = streak < 0 ? streak - 1 : -1;
+            if (-streak >= config.getHealthCheckUnhealthyThreshold()) {
+                OutlierDetector.getInstance().updateHealth(instance, false);
+            }
+        }
+        streaks.put(instanceId, streak);
+    }
+
+    /**
+     * 暴露实例的健康状态指标：1健康，0不健康
+     */
+    private void registerGauge(ServiceInstance instance) {
+        if (gauges.containsKey(instance.getServiceInstanceId())) {
+            return;
+        }
+        Gauge gauge = Gauge.builder("gateway_instance_healthy", ServiceInstanceStats.of(instance), s -> s.isHealthy() ? 1 : 0)
+                .tag("uniqueId", String.valueOf(instance.getUniqueId()))
+                .tag("instance", instance.getServiceInstanceId())
+                .register(Metrics.globalRegistry);
+        gauges.put(instance.getServiceInstanceId(), gauge);
+    }
+
+    /**
+     * 注册中心中已经下线的实例，清理探测状态和指标
+     */
+    private void removeDeparted(Map<String, ServiceInstance> current) {
+        Iterator<String> iterator = gauges.keySet().iterator();
+        while (iterator.hasNext()) {
+            String instanceId = iterator.next();
+            if (!current.containsKey(instanceId)) {
+                Metrics.globalRegistry.remove(gauges.get(instanceId));
+                streaks.remove(instanceId);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 实例下线：立即清理探测状态，并恢复实例的健康标记
+     * 健康检查关闭时也会调用，重新注册的同一个实例不会因为下线前的探测结果一直被跳过
+     *
+     * @param instance
+     */
+    public void onInstanceRemoved(ServiceInstance instance) {
+        OutlierDetector.getInstance().updateHealth(instance, true);
+        if (!config.isHealthCheckEnabled()) {
+            return;
+        }
+        String instanceId = instance.getServiceInstanceId();
+        eventLoop.execute(() -> {
+            Gauge gauge = gauges.remove(instanceId);
+            if (gauge != null) {
+                Metrics.globalRegistry.remove(gauge);
+            }
+            streaks.remove(instanceId);
+        });
+    }
+}
@@ -104,6 +104,30 @@ public class RequestHelper {
         return clientIp;
     }
 
+    /**
+     * 判断请求是否需要流式转发请求体，在请求头到达、请求体还没有聚合时调用
+     */
+    public static boolean isStreaming(HttpRequest request) {
+        Rule rule = findRule(request);
+        return rule != null && rule.isRequestStreaming();
+    }
+
+    /**
+     * 在创建上下文之前，根据原始请求的uniqueId和路径查找rule，找不到返回null
+     */
+    public static Rule findRule(HttpRequest request) {
+        String uniqueId = request.headers().get(GatewayConst.UNIQUE_ID);
+        if (StringUtils.isBlank(uniqueId)) {
+            return null;
+        }
+        ServiceDefinition serviceDefinition = DynamicConfigManager.getInstance().getServiceDefinition(uniqueId);
+        if (serviceDefinition == null) {
+            return null;
+        }
+        String path = new QueryStringDecoder(request.uri()).path();
+        return findRule(serviceDefinition.getServiceId(), path);
+    }
+
     /**
      * 根据请求对象获取rule
      *
@@ -111,18 +135,18 @@ public class RequestHelper {
      * @return
      */
     private static Rule getRule(GatewayRequest gateWayRequest, String serverId) {
-        //从配置中心获取rule的数据，根据DynamicConfigManager中的rule集合获取
-        String key = serverId + "." + gateWayRequest.getPath();
-        Rule ruleByPath = DynamicConfigManager.getInstance().getRuleByPath(key);
-
-        //如果有根据path配置rule，直接返回
-        if (ruleByPath != null) {
-            return ruleByPath;
+        Rule rule = findRule(serverId, gateWayRequest.getPath());
+        if (rule == null) {
+            throw new ResponseException(ResponseCode.PATH_NO_MATCHED);
         }
+        return rule;
+    }
 
-        //否则，根据请求的服务id和path返回
-        return DynamicConfigManager.getInstance().getRuleByServiceId(serverId)
-                .stream().filter(r -> gateWayRequest.getPath().startsWith(r.getPrefix()))
-                .findAny().orElseThrow(() -> new ResponseException(ResponseCode.PATH_NO_MATCHED));
+    /**
+     * 根据服务id和路径查找rule，找不到返回null
+     */
+    public static Rule findRule(String serverId, String path) {
+        //从配置中心获取rule的数据，使用同一个路由表快照，先精确匹配路径，再按最长前缀匹配
+        return DynamicConfigManager.getInstance().getRouteTable().findRule(serverId, path);
     }
-}
\ No newline at end of file
+}
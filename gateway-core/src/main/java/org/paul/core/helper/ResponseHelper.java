@@ -3,9 +3,12 @@ package org.paul.core.helper;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
 import org.paul.common.constants.BasicConst;
 import org.paul.common.enums.ResponseCode;
+import org.paul.common.exception.BaseException;
+import org.paul.common.exception.FlowCtlException;
 import org.paul.core.context.IContext;
 import org.paul.core.response.GatewayResponse;
 
@@ -22,7 +25,7 @@ public class ResponseHelper {
     public static FullHttpResponse getHttpResponse(ResponseCode responseCode) {
         GatewayResponse gatewayResponse = GatewayResponse.buildGatewayResponse(responseCode);
         DefaultFullHttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
-                HttpResponseStatus.INTERNAL_SERVER_ERROR,
+                responseCode.getStatus(),
                 Unpooled.wrappedBuffer(gatewayResponse.getContent().getBytes()));
 
         httpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON + ";charset=utf-8");
@@ -30,6 +33,18 @@ public class ResponseHelper {
         return httpResponse;
     }
 
+    /**
+     * 根据异常获取响应对象，被限流时带上Retry-After头（秒）
+     */
+    public static FullHttpResponse getHttpResponse(BaseException e) {
+        FullHttpResponse httpResponse = getHttpResponse(e.getCode());
+        if (e instanceof FlowCtlException && ((FlowCtlException) e).getRetryAfterMillis() > 0) {
+            long retryAfterSeconds = (((FlowCtlException) e).getRetryAfterMillis() + 999) / 1000;
+            httpResponse.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+        }
+        return httpResponse;
+    }
+
     /**
      * 通过上下文对象和Response对象 构建FullHttpResponse
      */
@@ -66,6 +81,19 @@ public class ResponseHelper {
     }
 
 
+    /**
+     * 写回网关自己生成的响应（错误、限流等），长连接写完后保持连接，短连接写完后关闭
+     */
+    public static void writeResponse(ChannelHandlerContext ctx, boolean keepAlive, FullHttpResponse httpResponse) {
+        if (keepAlive) {
+            httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            ctx.writeAndFlush(httpResponse);
+        } else {
+            httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            ctx.writeAndFlush(httpResponse).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
     /**
      * 写回响应信息方法
      */
@@ -78,6 +106,7 @@ public class ResponseHelper {
             //	1：第一步构建响应对象，并写回数据
             FullHttpResponse httpResponse = ResponseHelper.getHttpResponse(context, (GatewayResponse)context.getResponse());
             if(!context.isKeepAlive()) {
+                httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
                 context.getNettyCtx()
                         .writeAndFlush(httpResponse).addListener(ChannelFutureListener.CLOSE);
             }
@@ -124,6 +124,9 @@ public class NettyHttpServer implements LifeCycle {
                                 // 这是一个 Netty 提供的编解码器，用于处理 HTTP 请求和响应。它将字节流转换为 HttpRequest 和 HttpResponse 对象，反之亦然
                                 new HttpServerCodec(),
 
+                                // 流式请求体：开启了requestStreaming的规则，请求体不经过聚合器，分块直接转发给下游服务
+                                new NettyHttpStreamingHandler(config),
+
                                 // 聚合器（Aggregator）：由于 HTTP 请求可能分布在多个 TCP 数据包中，
                                 // Netty 使用了一个叫做 HttpObjectAggregator 的处理器来将这些片段聚合成一个完整的 HTTP 请求。
                                 // 这个处理器确保了即使请求是分块传输的，应用程序也会接收到一个完整的 FullHttpRequest 对象
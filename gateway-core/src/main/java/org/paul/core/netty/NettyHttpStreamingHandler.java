@@ -0,0 +1,77 @@
+package org.paul.core.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.*;
+import lombok.extern.slf4j.Slf4j;
+import org.paul.core.Config;
+import org.paul.core.helper.RequestHelper;
+import org.paul.core.request.StreamingFullHttpRequest;
+import org.paul.core.request.StreamingRequestBody;
+
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * 流式请求体处理器，放在HttpObjectAggregator之前
+ * 规则开启了requestStreaming的请求，不再交给聚合器，而是立即把请求头交给后续处理器，请求体分块转发
+ * 其他请求原样交给聚合器
+ */
+@Slf4j
+public class NettyHttpStreamingHandler extends ChannelInboundHandlerAdapter {
+
+    private final Config config;
+
+    // 当前正在流式转发的请求体，一个连接同一时间只有一个
+    private StreamingRequestBody currentBody;
+
+    public NettyHttpStreamingHandler(Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest && !(msg instanceof FullHttpRequest)) {
+            HttpRequest request = (HttpRequest) msg;
+            if (request.decoderResult().isSuccess() && RequestHelper.isStreaming(request)) {
+                // 聚合器不再处理这个请求，Expect: 100-continue需要网关自己应答
+                if (HttpUtil.is100ContinueExpected(request)) {
+                    ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE, Unpooled.EMPTY_BUFFER));
+                    request.headers().remove(HttpHeaderNames.EXPECT);
+                }
+                StreamingRequestBody body = new StreamingRequestBody(ctx.channel(), config.getHttpStreamingMaxPendingChunks());
+                currentBody = body;
+                ctx.fireChannelRead(new StreamingFullHttpRequest(request, body));
+                // 请求头本身可能就是最后一个分块
+                if (msg instanceof HttpContent) {
+                    onContent((HttpContent) msg);
+                }
+                return;
+            }
+        }
+
+        if (currentBody != null && msg instanceof HttpContent) {
+            onContent((HttpContent) msg);
+            return;
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (currentBody != null) {
+            currentBody.abort(new ClosedChannelException());
+            currentBody = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    private void onContent(HttpContent content) {
+        StreamingRequestBody body = currentBody;
+        if (content instanceof LastHttpContent) {
+            currentBody = null;
+        }
+        body.onContent(content);
+    }
+}
@@ -1,9 +1,11 @@
 package org.paul.core.netty;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 import org.paul.common.utils.RemotingHelper;
 
@@ -14,6 +16,36 @@ import org.paul.common.utils.RemotingHelper;
 @Slf4j
 public class NettyServerConnectManagerHandler extends ChannelDuplexHandler {
 
+    //channel重新可写或者关闭时执行的任务
+    private static final AttributeKey<Runnable> ON_WRITABLE = AttributeKey.valueOf("gateway.on.writable");
+
+    /**
+     * channel可写或者已经关闭时立即执行task，否则等到写缓冲降到低水位以下或者channel关闭时再执行
+     * 只在channel的EventLoop中调用，同一时间只保留一个任务
+     */
+    public static void whenWritable(Channel channel, Runnable task) {
+        if (channel.isWritable() || !channel.isActive()) {
+            task.run();
+            return;
+        }
+        channel.attr(ON_WRITABLE).set(task);
+    }
+
+    private static void runWritableTask(Channel channel) {
+        Runnable task = channel.attr(ON_WRITABLE).getAndSet(null);
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            runWritableTask(ctx.channel());
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
         //当Channel注册到它的EventLoop并且能够处理I/O时调用
@@ -43,6 +75,7 @@ public class NettyServerConnectManagerHandler extends ChannelDuplexHandler {
         //不再是活动状态且不再连接它的远程节点时被调用
         final String remoteAddr = RemotingHelper.parseChannelRemoteAddr(ctx.channel());
         log.debug("NETTY SERVER PIPLINE: channelInactive {}", remoteAddr);
+        runWritableTask(ctx.channel());
         super.channelInactive(ctx);
     }
 
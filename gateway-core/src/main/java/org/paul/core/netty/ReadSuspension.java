@@ -0,0 +1,50 @@
+package org.paul.core.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * channel读取的暂停和恢复，所有修改autoRead的地方都通过这个类
+ * 每个暂停的原因占一位，保存在channel上，只有所有原因都解除后才恢复读取，避免一方恢复读取时覆盖另一方的暂停
+ * 只在channel的EventLoop中调用
+ */
+public final class ReadSuspension {
+
+    //请求队列满，请求暂存在channel上
+    public static final int REASON_OVERFLOW = 1;
+
+    //流式请求体暂存的分块过多
+    public static final int REASON_REQUEST_BODY = 1 << 1;
+
+    private static final AttributeKey<Integer> REASONS = AttributeKey.valueOf("gateway.read.suspension");
+
+    private ReadSuspension() {
+    }
+
+    /**
+     * 因为reason暂停读取
+     */
+    public static void suspend(Channel channel, int reason) {
+        Attribute<Integer> attr = channel.attr(REASONS);
+        Integer reasons = attr.get();
+        attr.set(reasons == null ? reason : reasons | reason);
+        if (channel.config().isAutoRead()) {
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * 解除reason的暂停，没有其他原因时恢复读取
+     */
+    public static void resume(Channel channel, int reason) {
+        Attribute<Integer> attr = channel.attr(REASONS);
+        Integer reasons = attr.get();
+        int remaining = reasons == null ? 0 : reasons & ~reason;
+        attr.set(remaining);
+        if (remaining == 0 && !channel.config().isAutoRead()) {
+            //打开autoRead时netty会发起一次read
+            channel.config().setAutoRead(true);
+        }
+    }
+}
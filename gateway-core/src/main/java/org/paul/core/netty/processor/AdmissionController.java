@@ -0,0 +1,222 @@
+package org.paul.core.netty.processor;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.paul.common.config.Rule;
+import org.paul.common.enums.ResponseCode;
+import org.paul.core.Config;
+import org.paul.core.context.HttpRequestWrapper;
+import org.paul.core.disruptor.ParallelQueue;
+import org.paul.core.helper.RequestHelper;
+import org.paul.core.helper.ResponseHelper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import static org.paul.common.constants.GatewayConst.*;
+
+/**
+ * 入口的准入控制，在请求放入队列之前判断网关是否过载，过载时按优先级提前丢弃请求
+ * 过载程度取三个信号中最大的一个，每个信号除以各自的阈值，1表示达到阈值：
+ * 队列占用比例（inline模式下为阻塞线程池的队列）、请求在队列中的平均等待时间（只有使用队列的模式）、netty事件循环的调度延迟
+ * 过载程度从0.5到1时，low的请求按比例逐步丢弃；从1到2时，normal的请求按比例逐步丢弃；critical的请求不丢弃
+ * 按比例丢弃让过载时的延迟平滑上升，而不是队列满了以后所有请求一起变慢
+ */
+public class AdmissionController {
+
+    //事件循环延迟的探测间隔
+    private static final long LAG_PROBE_INTERVAL_MILLIS = 100;
+
+    //队列等待时间超过这个时间没有更新时不再使用，避免队列空闲后一直按旧的等待时间丢弃请求
+    private static final long QUEUE_WAIT_STALE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    //队列等待时间的指数移动平均系数
+    private static final double QUEUE_WAIT_ALPHA = 0.2d;
+
+    //low的请求从这个过载程度开始丢弃
+    private static final double LOW_SHED_START = 0.5d;
+
+    private final boolean enabled;
+
+    //队列的占用比例，0到1
+    private final DoubleSupplier occupancy;
+
+    private final double occupancyThreshold;
+
+    private final long queueWaitThresholdNanos;
+
+    private final long lagThresholdNanos;
+
+    //请求在队列中的平均等待时间，多个消费线程并发更新时可能丢失个别采样，不影响平均值
+    private volatile long queueWaitNanos;
+
+    private volatile long queueWaitUpdatedNanos;
+
+    //所有事件循环中最大的调度延迟
+    private volatile long eventLoopLagNanos;
+
+    private final List<LagProbe> lagProbes = new CopyOnWriteArrayList<>();
+
+    public AdmissionController(Config config, ParallelQueue<?> queue) {
+        this(config, () -> 1 - (double) queue.remainingCapacity() / queue.capacity());
+    }
+
+    /**
+     * @param config
+     * @param occupancy 队列的占用比例
+     */
+    public AdmissionController(Config config, DoubleSupplier occupancy) {
+        this.enabled = config.isAdmissionEnabled();
+        this.occupancy = occupancy;
+        this.occupancyThreshold = config.getAdmissionRingOccupancy();
+        this.queueWaitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdmissionQueueWaitMillis());
+        this.lagThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdmissionEventLoopLagMillis());
+    }
+
+    /**
+     * 判断请求是否可以放入队列，在netty的事件循环中调用
+     *
+     * @param request
+     * @return false表示需要丢弃
+     */
+    public boolean admit(HttpRequest request) {
+        if (!enabled) {
+            return true;
+        }
+        double pressure = pressure();
+        //没有过载时不需要解析请求的优先级
+        if (pressure < LOW_SHED_START) {
+            return true;
+        }
+        double shedProbability;
+        switch (priorityOf(request)) {
+            case PRIORITY_CRITICAL:
+                return true;
+            case PRIORITY_LOW:
+                shedProbability = (pressure - LOW_SHED_START) / (1 - LOW_SHED_START);
+                break;
+            default:
+                shedProbability = pressure - 1;
+                break;
+        }
+        return shedProbability <= 0 || (shedProbability < 1 && ThreadLocalRandom.current().nextDouble() >= shedProbability);
+    }
+
+    /**
+     * 当前的过载程度，1表示至少有一个信号达到阈值
+     */
+    public double pressure() {
+        double pressure = occupancy.getAsDouble() / occupancyThreshold;
+        if (System.nanoTime() - queueWaitUpdatedNanos < QUEUE_WAIT_STALE_NANOS) {
+            pressure = Math.max(pressure, (double) queueWaitNanos / queueWaitThresholdNanos);
+        }
+        return Math.max(pressure, (double) eventLoopLagNanos / lagThresholdNanos);
+    }
+
+    /**
+     * 丢弃请求：直接返回503，保持长连接
+     */
+    static void shed(HttpRequestWrapper httpRequestWrapper) {
+        FullHttpRequest request = httpRequestWrapper.getRequest();
+        ChannelHandlerContext ctx = httpRequestWrapper.getCtx();
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        ReferenceCountUtil.release(request);
+        FullHttpResponse httpResponse = ResponseHelper.getHttpResponse(ResponseCode.GATEWAY_OVERLOADED);
+        if (keepAlive) {
+            httpResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            ctx.writeAndFlush(httpResponse);
+        } else {
+            ctx.writeAndFlush(httpResponse).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 请求的优先级：规则配置的优先级，请求头只能降低，不能提高
+     */
+    static int priorityOf(HttpRequest request) {
+        Rule rule = RequestHelper.findRule(request);
+        int priority = rule == null ? PRIORITY_NORMAL : rule.getPriority();
+        String header = request.headers().get(PRIORITY_HEADER);
+        if (header != null) {
+            priority = Math.min(priority, NumberUtils.toInt(header.trim(), priority));
+        }
+        return priority;
+    }
+
+    /**
+     * 记录请求在队列中的等待时间，在消费线程中调用
+     *
+     * @param enqueueNanos 放入队列的时间
+     */
+    public void recordQueueWait(long enqueueNanos) {
+        if (!enabled || enqueueNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = now - enqueueNanos;
+        queueWaitNanos = now - queueWaitUpdatedNanos >= QUEUE_WAIT_STALE_NANOS
+                ? wait : (long) (queueWaitNanos * (1 - QUEUE_WAIT_ALPHA) + wait * QUEUE_WAIT_ALPHA);
+        queueWaitUpdatedNanos = now;
+    }
+
+    /**
+     * 在每个事件循环中定时执行探测任务，任务实际执行时间比预期晚多少就是事件循环的延迟
+     */
+    public void watchEventLoops(EventLoopGroup eventLoopGroup) {
+        if (!enabled) {
+            return;
+        }
+        for (EventExecutor executor : eventLoopGroup) {
+            LagProbe probe = new LagProbe(executor);
+            lagProbes.add(probe);
+            probe.schedule();
+        }
+    }
+
+    private void updateEventLoopLag() {
+        long max = 0;
+        for (LagProbe probe : lagProbes) {
+            max = Math.max(max, probe.lagNanos);
+        }
+        eventLoopLagNanos = max;
+    }
+
+    /**
+     * 事件循环延迟的探测任务，每次执行后重新调度自己
+     */
+    private class LagProbe implements Runnable {
+
+        private final EventExecutor executor;
+
+        private long expectedNanos;
+
+        private volatile long lagNanos;
+
+        private LagProbe(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        void schedule() {
+            if (executor.isShuttingDown()) {
+                return;
+            }
+            expectedNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LAG_PROBE_INTERVAL_MILLIS);
+            executor.schedule(this, LAG_PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            lagNanos = Math.max(0, System.nanoTime() - expectedNanos);
+            updateEventLoopLag();
+            schedule();
+        }
+    }
+}
@@ -1,46 +1,139 @@
 package org.paul.core.netty.processor;
 
 import com.lmax.disruptor.dsl.ProducerType;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.paul.common.enums.ResponseCode;
 import org.paul.core.Config;
 import org.paul.core.context.HttpRequestWrapper;
 import org.paul.core.disruptor.EventListener;
+import org.paul.core.disruptor.ParallelQueue;
 import org.paul.core.disruptor.ParallelQueueHandler;
+import org.paul.core.disruptor.ShardedParallelQueue;
 import org.paul.core.helper.ResponseHelper;
+import org.paul.core.netty.ReadSuspension;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.paul.common.constants.GatewayConst.BUFFER_TYPE_SHARDED;
+import static org.paul.common.constants.GatewayConst.PRIORITY_CRITICAL;
 
 @Slf4j
 public class DisruptorNettyProcessor implements NettyProcessor {
     private static final String THREAD_NAME_PREFIX = "gateway-disruptor-netty-processor-";
 
+    //队列满时暂存在channel上的请求
+    private static final AttributeKey<ChannelOverflow> OVERFLOW = AttributeKey.valueOf("gateway.processor.overflow");
+
+    //队列满时重新尝试放入队列的间隔，每次失败翻倍，消费者处理了请求会提前唤醒
+    private static final long DRAIN_RETRY_MICROS = 500;
+
+    //重新尝试的最大间隔
+    private static final long MAX_DRAIN_RETRY_MICROS = 10_000;
+
+    //分片模式下每个分片的最小队列大小
+    private static final int MIN_SHARD_BUFFER_SIZE = 1024;
+
     private Config config;
 
     private NettyCoreProcessor nettyCoreProcessor;
 
-    private ParallelQueueHandler<HttpRequestWrapper> parallelQueueHandler;
+    private ParallelQueue<HttpRequestWrapper> parallelQueueHandler;
+
+    //入口的准入控制，过载时按优先级提前丢弃请求
+    private AdmissionController admissionController;
+
+    //有暂存请求、等待队列空位的channel，消费者每处理一个请求唤醒一个
+    private final Queue<ChannelOverflow> parkedChannels = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
 
     public DisruptorNettyProcessor(Config config, NettyCoreProcessor nettyCoreProcessor) {
         this.config = config;
         this.nettyCoreProcessor = nettyCoreProcessor;
 
+        boolean sharded = BUFFER_TYPE_SHARDED.equals(config.getBufferType());
+        //分片模式下队列大小和处理线程按事件循环数平分，每个事件循环一个单生产者的队列
+        int shards = sharded ? Math.max(1, config.getEventLoopGroupWorkerNum()) : 1;
         ParallelQueueHandler.Builder<HttpRequestWrapper> builder = new ParallelQueueHandler.Builder<HttpRequestWrapper>()
-                .setBufferSize(config.getBufferSize())
-                .setThreads(config.getProcessThreadNum())
+                .setBufferSize(sharded ? Integer.highestOneBit(Math.max(MIN_SHARD_BUFFER_SIZE, config.getBufferSize() / shards)) : config.getBufferSize())
+                .setThreads(Math.max(1, config.getProcessThreadNum() / shards))
                 .setNamePrefix(THREAD_NAME_PREFIX)
                 .setProducerType(ProducerType.MULTI)
-                .setWaitStrategy(config.getWaitStrategy());
+                .setWaitStrategy(config.getWaitStrategy())
+                //批量模式下同一个连接的请求由同一个消费者按顺序处理
+                .setBatch(config.isBufferBatch())
+                .setShardFunction(wrapper -> wrapper.getCtx().channel().id().hashCode());
 
         BatchEventListenerProcessor batchEventListenerProcessor = new BatchEventListenerProcessor();
         builder.setEventListener(batchEventListenerProcessor);
-        this.parallelQueueHandler = builder.build();
+        this.parallelQueueHandler = sharded
+                ? new ShardedParallelQueue<>(builder, shards, THREAD_NAME_PREFIX,
+                        wrapper -> wrapper.getCtx().channel().eventLoop(), batchEventListenerProcessor)
+                : builder.build();
+        this.admissionController = new AdmissionController(config, parallelQueueHandler);
     }
 
+    /**
+     * 在netty的事件循环中调用：过载时丢弃低优先级的请求，任何情况下都不阻塞事件循环
+     * 开启背压时，队列满了就暂停读取这个channel，请求暂存在channel上，队列有空位后再放入并恢复读取
+     * 没有开启背压时，队列满了非critical的请求直接返回503，critical的请求按背压的方式暂存，暂存数量有上限
+     */
     @Override
     public void process(HttpRequestWrapper httpRequestWrapper) {
-        this.parallelQueueHandler.add(httpRequestWrapper);
+        FullHttpRequest request = httpRequestWrapper.getRequest();
+        if (!admissionController.admit(request)) {
+            AdmissionController.shed(httpRequestWrapper);
+            return;
+        }
+        //channel上已经有暂存的请求时排在它们后面，保证同一个连接上请求的顺序
+        ChannelOverflow overflow = httpRequestWrapper.getCtx().channel().attr(OVERFLOW).get();
+        if (overflow != null && !overflow.isEmpty()) {
+            overflow.park(httpRequestWrapper);
+            return;
+        }
+        if (tryPublish(httpRequestWrapper)) {
+            return;
+        }
+        if (config.isBufferBackpressure() || AdmissionController.priorityOf(request) == PRIORITY_CRITICAL) {
+            park(httpRequestWrapper);
+        } else {
+            AdmissionController.shed(httpRequestWrapper);
+        }
+    }
+
+    /**
+     * 队列满时把请求暂存在channel上
+     */
+    private void park(HttpRequestWrapper httpRequestWrapper) {
+        Channel channel = httpRequestWrapper.getCtx().channel();
+        ChannelOverflow overflow = channel.attr(OVERFLOW).get();
+        if (overflow == null) {
+            overflow = new ChannelOverflow(httpRequestWrapper.getCtx());
+            channel.attr(OVERFLOW).set(overflow);
+        }
+        overflow.park(httpRequestWrapper);
+    }
+
+    private boolean tryPublish(HttpRequestWrapper httpRequestWrapper) {
+        httpRequestWrapper.setEnqueueNanos(System.nanoTime());
+        return parallelQueueHandler.tryAdd(httpRequestWrapper);
     }
 
     @Override
@@ -48,17 +141,139 @@ public class DisruptorNettyProcessor implements NettyProcessor {
         parallelQueueHandler.start();
     }
 
+    /**
+     * 一个channel上因为队列满而暂存的请求，只在channel的事件循环中访问
+     * 有暂存请求时暂停读取，不再从socket读取，背压通过TCP的接收窗口传给客户端，同一个事件循环上的其他连接不受影响
+     * 关闭autoRead前已经读到的数据仍然会解码出请求，暂存数量超过上限时返回503
+     * 消费者处理请求后唤醒等待的channel重新放入，定时重试只是兜底，间隔按失败次数退避，不会忙轮询
+     */
+    private class ChannelOverflow implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+
+        private final Deque<HttpRequestWrapper> pending = new ArrayDeque<>();
+
+        //已经安排的重试
+        private ScheduledFuture<?> drainFuture;
+
+        //下一次重试的间隔
+        private long retryMicros = DRAIN_RETRY_MICROS;
+
+        //是否已经在parkedChannels中等待唤醒，消费者线程也会修改
+        private final AtomicBoolean awaitingWake = new AtomicBoolean();
+
+        private ChannelOverflow(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        boolean isEmpty() {
+            return pending.isEmpty();
+        }
+
+        void park(HttpRequestWrapper httpRequestWrapper) {
+            if (pending.size() >= config.getBufferOverflowPerChannel()) {
+                AdmissionController.shed(httpRequestWrapper);
+                return;
+            }
+            pending.add(httpRequestWrapper);
+            ReadSuspension.suspend(ctx.channel(), ReadSuspension.REASON_OVERFLOW);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (drainFuture == null) {
+                drainFuture = ctx.executor().schedule(this, retryMicros, TimeUnit.MICROSECONDS);
+                retryMicros = Math.min(retryMicros << 1, MAX_DRAIN_RETRY_MICROS);
+            }
+            if (awaitingWake.compareAndSet(false, true)) {
+                parkedChannels.add(this);
+            }
+        }
+
+        /**
+         * 消费者处理了请求，队列有了空位，在channel的事件循环中立即重新放入
+         */
+        void wake() {
+            awaitingWake.set(false);
+            ctx.executor().execute(() -> {
+                if (drainFuture != null) {
+                    drainFuture.cancel(false);
+                }
+                run();
+            });
+        }
+
+        /**
+         * 按顺序把暂存的请求放入队列，全部放入后恢复读取
+         */
+        @Override
+        public void run() {
+            drainFuture = null;
+            if (!ctx.channel().isActive()) {
+                HttpRequestWrapper httpRequestWrapper;
+                while ((httpRequestWrapper = pending.poll()) != null) {
+                    ReferenceCountUtil.release(httpRequestWrapper.getRequest());
+                }
+                return;
+            }
+            while (!pending.isEmpty()) {
+                if (!tryPublish(pending.peek())) {
+                    scheduleDrain();
+                    return;
+                }
+                pending.poll();
+            }
+            retryMicros = DRAIN_RETRY_MICROS;
+            ReadSuspension.resume(ctx.channel(), ReadSuspension.REASON_OVERFLOW);
+        }
+    }
+
     @Override
     public void shutDown() {
         parallelQueueHandler.shutDown();
     }
 
+    /**
+     * 消费者取出了count个请求，最多唤醒count个等待队列空位的channel
+     */
+    private void wakeParked(int count) {
+        ChannelOverflow overflow;
+        for (int i = 0; i < count && (overflow = parkedChannels.poll()) != null; i++) {
+            overflow.wake();
+        }
+    }
+
     public class BatchEventListenerProcessor implements EventListener<HttpRequestWrapper> {
         @Override
         public void onEvent(HttpRequestWrapper event) {
+            admissionController.recordQueueWait(event.getEnqueueNanos());
+            wakeParked(1);
             nettyCoreProcessor.process(event);
         }
 
+        /**
+         * 批量模式：一批请求只记录一次队列等待时间（取最早放入的请求），再逐个处理
+         */
+        @Override
+        public void onBatch(List<HttpRequestWrapper> events) {
+            long oldest = 0;
+            for (HttpRequestWrapper event : events) {
+                long enqueueNanos = event.getEnqueueNanos();
+                if (enqueueNanos != 0 && (oldest == 0 || enqueueNanos - oldest < 0)) {
+                    oldest = enqueueNanos;
+                }
+            }
+            admissionController.recordQueueWait(oldest);
+            wakeParked(events.size());
+            for (HttpRequestWrapper event : events) {
+                try {
+                    nettyCoreProcessor.process(event);
+                } catch (Throwable t) {
+                    onException(t, -1, event);
+                }
+            }
+        }
+
         @Override
         public void onException(Throwable ex, long sequence, HttpRequestWrapper event) {
             HttpRequest httpRequest = event.getRequest();
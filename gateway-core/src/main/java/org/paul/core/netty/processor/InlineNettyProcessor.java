@@ -0,0 +1,46 @@
+package org.paul.core.netty.processor;
+
+import org.paul.core.Config;
+import org.paul.core.context.HttpRequestWrapper;
+import org.paul.core.filter.BlockingFilterExecutor;
+
+/**
+ * inline模式：在netty的事件循环中直接执行过滤器链条，没有缓冲队列
+ * 过载时同样按优先级提前丢弃请求，过载信号为阻塞过滤器线程池的队列占用和事件循环的调度延迟
+ */
+public class InlineNettyProcessor implements NettyProcessor {
+
+    private final NettyCoreProcessor nettyCoreProcessor;
+
+    //入口的准入控制，过载时按优先级提前丢弃请求
+    private final AdmissionController admissionController;
+
+    public InlineNettyProcessor(Config config, NettyCoreProcessor nettyCoreProcessor) {
+        this.nettyCoreProcessor = nettyCoreProcessor;
+        this.admissionController = new AdmissionController(config, BlockingFilterExecutor.getInstance()::occupancy);
+    }
+
+    @Override
+    public void process(HttpRequestWrapper httpRequestWrapper) {
+        if (!admissionController.admit(httpRequestWrapper.getRequest())) {
+            AdmissionController.shed(httpRequestWrapper);
+            return;
+        }
+        nettyCoreProcessor.process(httpRequestWrapper);
+    }
+
+    @Override
+    public void start() {
+        nettyCoreProcessor.start();
+    }
+
+    @Override
+    public void shutDown() {
+        nettyCoreProcessor.shutDown();
+    }
+
+    @Override
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+}
@@ -1,9 +1,9 @@
 package org.paul.core.netty.processor;
 
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.paul.common.enums.ResponseCode;
@@ -39,7 +39,6 @@ public class NettyCoreProcessor implements NettyProcessor {
         try {
             // request转换为内部GatewayContext对象
             GatewayContext gatewayContext = RequestHelper.doContext(request, ctx);
-            Thread.sleep(10);
             //执行过滤器逻辑
             filterFactory.buildFilterChain(gatewayContext).doFilter(gatewayContext);
 
@@ -48,7 +47,7 @@ public class NettyCoreProcessor implements NettyProcessor {
             // 日志，code和message
             log.error("process error{} {}", e.getCode(), e.getMessage());
             // 根据辅助类，获取响应结果
-            FullHttpResponse httpResponse = ResponseHelper.getHttpResponse(e.getCode());
+            FullHttpResponse httpResponse = ResponseHelper.getHttpResponse(e);
             // 写入并释放doWriteAndRelease
             doWriteAndRelease(ctx, request, httpResponse);
         }// catch处理未知异常
@@ -74,14 +73,13 @@ public class NettyCoreProcessor implements NettyProcessor {
 
     /**
      * doWriteAndRelease
-     *  写入response，添加监听器，由监听器关闭channel
+     *  写入response，长连接保持连接，短连接由监听器关闭channel
      *  调用ReferenceCountUtil，释放request中的缓冲
      */
     private void doWriteAndRelease(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse response) {
-        ctx.writeAndFlush(response)
-                //关闭channel
-                .addListener(ChannelFutureListener.CLOSE);
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
         //释放request
         ReferenceCountUtil.release(request);
+        ResponseHelper.writeResponse(ctx, keepAlive, response);
     }
 }
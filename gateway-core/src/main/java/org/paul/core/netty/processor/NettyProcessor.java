@@ -9,4 +9,9 @@ public interface NettyProcessor {
     //启动 和 销毁
     void start();
     void shutDown();
+
+    //入口的准入控制，没有时返回null
+    default AdmissionController getAdmissionController() {
+        return null;
+    }
 }
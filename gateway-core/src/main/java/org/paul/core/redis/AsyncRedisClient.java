@@ -0,0 +1,353 @@
+package org.paul.core.redis;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.redis.*;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非阻塞的redis客户端
+ * 基于netty的redis编解码，少量长连接多路复用：同一个连接上的命令按顺序写出、按顺序收到响应，不需要等上一个命令返回（pipeline）
+ * 同一轮事件循环里提交的命令合并成一次flush，并发的限流检查可以共用一次系统调用
+ * 所有命令返回CompletableFuture，调用线程不会阻塞在redis上
+ * 连接配置和JedisPoolUtil一样从gateway.properties读取
+ */
+@Slf4j
+public class AsyncRedisClient {
+
+    private static final String NOSCRIPT = "NOSCRIPT";
+
+    private String host = "127.0.0.1";
+
+    private int port = 6379;
+
+    private String password;
+
+    //命令超时时间
+    private int timeout = 2000;
+
+    private final EventLoopGroup eventLoopGroup;
+
+    private final Bootstrap bootstrap;
+
+    private final Connection[] connections;
+
+    //轮询选择连接
+    private final AtomicInteger next = new AtomicInteger();
+
+    private AsyncRedisClient() {
+        int connectionCount = initialConfig();
+        this.eventLoopGroup = new NioEventLoopGroup(connectionCount, new DefaultThreadFactory("gateway-redis", true));
+        this.bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                new RedisDecoder(),
+                                new RedisBulkStringAggregator(),
+                                new RedisArrayAggregator(),
+                                new RedisEncoder(),
+                                new CommandHandler());
+                    }
+                });
+        this.connections = new Connection[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            connections[i] = new Connection();
+        }
+    }
+
+    private static class SingletonHolder {
+        private static final AsyncRedisClient INSTANCE = new AsyncRedisClient();
+    }
+
+    public static AsyncRedisClient getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * 读取连接配置，返回连接数
+     */
+    private int initialConfig() {
+        int connectionCount = 2;
+        try (InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream("gateway.properties")) {
+            if (inputStream == null) {
+                return connectionCount;
+            }
+            Properties prop = new Properties();
+            prop.load(inputStream);
+            host = prop.getProperty("redis.host", host);
+            port = Integer.parseInt(prop.getProperty("redis.port", String.valueOf(port)));
+            password = prop.getProperty("redis.password");
+            timeout = Integer.parseInt(prop.getProperty("redis.timeout", String.valueOf(timeout)));
+            connectionCount = Integer.parseInt(prop.getProperty("redis.asyncConnections", String.valueOf(connectionCount)));
+        } catch (Exception e) {
+            log.debug("parse configure file error.");
+        }
+        return Math.max(1, connectionCount);
+    }
+
+    /**
+     * 执行lua脚本：先EVALSHA，redis中没有这个脚本时用EVAL执行并缓存
+     *
+     * @param script
+     * @param keys
+     * @param args
+     * @return 脚本的返回值：整数为Long，字符串为String，数组为List
+     */
+    public CompletableFuture<Object> evalsha(RedisScript script, List<String> keys, List<String> args) {
+        return execute(scriptCommand("EVALSHA", script.getSha(), keys, args))
+                .handle((result, throwable) -> {
+                    if (throwable == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof RedisErrorException && cause.getMessage().startsWith(NOSCRIPT)) {
+                        return execute(scriptCommand("EVAL", script.getLua(), keys, args));
+                    }
+                    CompletableFuture<Object> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(cause);
+                    return failed;
+                })
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * 执行一个命令
+     *
+     * @param command 命令和参数，例如 "GET", "key"
+     * @return
+     */
+    public CompletableFuture<Object> execute(String... command) {
+        return execute(Arrays.asList(command));
+    }
+
+    private CompletableFuture<Object> execute(List<String> command) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        Connection connection = connections[(next.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+        ChannelFuture channelFuture = connection.connect();
+        if (channelFuture.isDone()) {
+            connection.send(channelFuture, command, result);
+        } else {
+            channelFuture.addListener(f -> connection.send(channelFuture, command, result));
+        }
+        return result.orTimeout(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<String> scriptCommand(String name, String script, List<String> keys, List<String> args) {
+        List<String> command = new ArrayList<>(3 + keys.size() + args.size());
+        command.add(name);
+        command.add(script);
+        command.add(String.valueOf(keys.size()));
+        command.addAll(keys);
+        command.addAll(args);
+        return command;
+    }
+
+    public void shutdown() {
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    /**
+     * 一个多路复用的连接，断开后下一次执行命令时重连
+     */
+    private class Connection {
+
+        private volatile ChannelFuture channelFuture;
+
+        ChannelFuture connect() {
+            ChannelFuture current = channelFuture;
+            if (current != null && (!current.isDone() || current.channel().isActive())) {
+                return current;
+            }
+            synchronized (this) {
+                current = channelFuture;
+                if (current == null || (current.isDone() && !current.channel().isActive())) {
+                    current = bootstrap.connect(host, port);
+                    if (StringUtils.isNotEmpty(password)) {
+                        //认证命令在调用方的命令之前写出
+                        current.addListener((ChannelFutureListener) f -> {
+                            if (f.isSuccess()) {
+                                CompletableFuture<Object> auth = new CompletableFuture<>();
+                                auth.whenComplete((r, t) -> {
+                                    if (t != null) {
+                                        log.warn("redis auth failed: {}", t.getMessage());
+                                    }
+                                });
+                                write(f.channel(), Arrays.asList("AUTH", password), auth);
+                            }
+                        });
+                    }
+                    channelFuture = current;
+                }
+                return current;
+            }
+        }
+
+        void send(ChannelFuture future, List<String> command, CompletableFuture<Object> result) {
+            if (!future.isSuccess()) {
+                result.completeExceptionally(future.cause() != null ? future.cause() : new IOException("redis connect failed"));
+                return;
+            }
+            Channel channel = future.channel();
+            if (channel.eventLoop().inEventLoop()) {
+                write(channel, command, result);
+            } else {
+                channel.eventLoop().execute(() -> write(channel, command, result));
+            }
+        }
+
+        /**
+         * 在连接的eventLoop中写出命令
+         */
+        private void write(Channel channel, List<String> command, CompletableFuture<Object> result) {
+            if (!channel.isActive()) {
+                result.completeExceptionally(new IOException("redis connection closed"));
+                return;
+            }
+            channel.write(new Command(encode(command), result), channel.voidPromise());
+        }
+    }
+
+    private static RedisMessage encode(List<String> command) {
+        List<RedisMessage> children = new ArrayList<>(command.size());
+        for (String part : command) {
+            children.add(new FullBulkStringRedisMessage(Unpooled.wrappedBuffer(part.getBytes(CharsetUtil.UTF_8))));
+        }
+        return new ArrayRedisMessage(children);
+    }
+
+    /**
+     * 命令和等待结果的future
+     */
+    private static class Command {
+        private final RedisMessage message;
+        private final CompletableFuture<Object> result;
+
+        private Command(RedisMessage message, CompletableFuture<Object> result) {
+            this.message = message;
+            this.result = result;
+        }
+    }
+
+    /**
+     * 按写出的顺序记录等待响应的命令，收到响应时按顺序完成；同一轮事件循环里写出的命令只flush一次
+     * 所有方法都在连接的eventLoop中执行
+     */
+    private static class CommandHandler extends ChannelDuplexHandler {
+
+        private final Deque<CompletableFuture<Object>> pending = new ArrayDeque<>();
+
+        //是否已经安排了flush
+        private boolean flushScheduled;
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            if (msg instanceof Command) {
+                Command command = (Command) msg;
+                pending.add(command.result);
+                ctx.write(command.message, promise);
+            } else {
+                ctx.write(msg, promise);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                ctx.executor().execute(() -> {
+                    flushScheduled = false;
+                    ctx.flush();
+                });
+            }
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            CompletableFuture<Object> result = pending.poll();
+            try {
+                if (result == null) {
+                    log.warn("unexpected redis response");
+                    return;
+                }
+                try {
+                    result.complete(convert((RedisMessage) msg));
+                } catch (RedisErrorException e) {
+                    result.completeExceptionally(e);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            IOException closed = new IOException("redis connection closed");
+            CompletableFuture<Object> result;
+            while ((result = pending.poll()) != null) {
+                result.completeExceptionally(closed);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("redis connection error: {}", cause.getMessage());
+            ctx.close();
+        }
+    }
+
+    private static Object convert(RedisMessage msg) {
+        if (msg instanceof ErrorRedisMessage) {
+            throw new RedisErrorException(((ErrorRedisMessage) msg).content());
+        }
+        if (msg instanceof SimpleStringRedisMessage) {
+            return ((SimpleStringRedisMessage) msg).content();
+        }
+        if (msg instanceof IntegerRedisMessage) {
+            return ((IntegerRedisMessage) msg).value();
+        }
+        if (msg instanceof FullBulkStringRedisMessage) {
+            FullBulkStringRedisMessage bulk = (FullBulkStringRedisMessage) msg;
+            return bulk.isNull() ? null : bulk.content().toString(CharsetUtil.UTF_8);
+        }
+        if (msg instanceof ArrayRedisMessage) {
+            ArrayRedisMessage array = (ArrayRedisMessage) msg;
+            if (array.isNull()) {
+                return null;
+            }
+            List<Object> list = new ArrayList<>(array.children().size());
+            for (RedisMessage child : array.children()) {
+                list.add(convert(child));
+            }
+            return list;
+        }
+        throw new RedisErrorException("unknown redis message: " + msg);
+    }
+
+    /**
+     * redis返回的错误
+     */
+    public static class RedisErrorException extends RuntimeException {
+        public RedisErrorException(String message) {
+            super(message);
+        }
+    }
+}
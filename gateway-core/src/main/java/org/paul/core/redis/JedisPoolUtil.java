@@ -10,7 +10,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 public class JedisPoolUtil {
-    public static JedisPool jedisPool = null;
+    public static volatile JedisPool jedisPool = null;
     private String host;
     private int port;
     private int maxTotal;
@@ -53,30 +53,24 @@ public class JedisPoolUtil {
      * initial redis pool
      */
     private void initialPool() {
-        if (lock.tryLock()) {
-            lock.lock();
-            initialConfig();
-            try {
-                JedisPoolConfig config = new JedisPoolConfig();
-                config.setMaxTotal(maxTotal);
-                config.setMaxIdle(maxIdle);
-                config.setMaxWaitMillis(maxWaitMillis);
-                config.setTestOnBorrow(testOnBorrow);
-                jedisPool = new JedisPool(config, host, port, timeout, password);
-            } catch (Exception e) {
-                log.debug("init redis pool failed : {}", e.getMessage());
-            } finally {
-                lock.unlock();
-            }
-        } else {
-            log.debug("some other is init pool, just wait 1 second.");
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        lock.lock();
+        try {
+            //拿到锁之后再检查一次，其他线程可能已经初始化完成
+            if (jedisPool != null) {
+                return;
             }
+            initialConfig();
+            JedisPoolConfig config = new JedisPoolConfig();
+            config.setMaxTotal(maxTotal);
+            config.setMaxIdle(maxIdle);
+            config.setMaxWaitMillis(maxWaitMillis);
+            config.setTestOnBorrow(testOnBorrow);
+            jedisPool = new JedisPool(config, host, port, timeout, password);
+        } catch (Exception e) {
+            log.debug("init redis pool failed : {}", e.getMessage());
+        } finally {
+            lock.unlock();
         }
-
     }
 
     public Jedis getJedis() {
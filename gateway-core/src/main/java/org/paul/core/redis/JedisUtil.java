@@ -3,8 +3,10 @@ package org.paul.core.redis;
 import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -22,6 +24,12 @@ public class JedisUtil {
     private final String SET_WITH_EXPIRE_TIME = "PX";
     private JedisPoolUtil jedisPool = new JedisPoolUtil();
 
+    //计数限流的lua脚本：KEYS[1]在ARGV[1]秒内最多ARGV[2]次，返回1通过，0被限流
+    public static final String COUNT_LIMIT_SCRIPT = buildLuaScript();
+
+    //lua脚本和它在redis中的SHA
+    private static final Map<String, String> scriptShaMap = new ConcurrentHashMap<>();
+
     public boolean setString(String key, String value) {
         Jedis jedis = jedisPool.getJedis();
         try {
@@ -272,28 +280,45 @@ public class JedisUtil {
     }
 
     public Object executeScript(String key, int limit, int expire){
-        Jedis jedis = jedisPool.getJedis();
-        String lua = buildLuaScript();
-        String scriptLoad =jedis.scriptLoad(lua);
+        return executeScript(COUNT_LIMIT_SCRIPT, Arrays.asList(key), Arrays.asList(String.valueOf(expire), String.valueOf(limit)));
+    }
+
+    /**
+     * 执行任意lua脚本，redis不可用或者执行出错时返回null
+     *
+     * @param lua
+     * @param keys
+     * @param args
+     * @return
+     */
+    public Object executeScript(String lua, List<String> keys, List<String> args) {
+        Jedis jedis = null;
         try {
-            Object result = jedis.evalsha(scriptLoad, Arrays.asList(key), Arrays.asList(String.valueOf(expire), String.valueOf(limit)));
-            System.out.println(result);
-            return result;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (jedis != null) {
-                try {
-                    jedis.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+            jedis = jedisPool.getJedis();
+            //脚本只加载一次，之后用EVALSHA执行；redis重启丢失脚本时重新加载
+            String sha = scriptShaMap.get(lua);
+            if (sha == null) {
+                sha = jedis.scriptLoad(lua);
+                scriptShaMap.put(lua, sha);
+            }
+            try {
+                return jedis.evalsha(sha, keys, args);
+            } catch (JedisDataException e) {
+                if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                    throw e;
                 }
+                sha = jedis.scriptLoad(lua);
+                scriptShaMap.put(lua, sha);
+                return jedis.evalsha(sha, keys, args);
             }
+        } catch (Exception e) {
+            log.debug("executeScript() keys {} throws:{}", keys, e.getMessage());
+            return null;
+        } finally {
+            close(jedis);
         }
-        return null;
     }
 
-
     // 构造lua脚本
     private static String buildLuaScript() {
         String lua = "local num = redis.call('incr', KEYS[1])\n" +
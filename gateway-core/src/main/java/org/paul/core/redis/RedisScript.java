@@ -0,0 +1,42 @@
+package org.paul.core.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * lua脚本和它的SHA1
+ * SHA1在本地计算，redis执行EVALSHA返回NOSCRIPT时再用EVAL执行一次，redis会顺便缓存脚本
+ */
+public final class RedisScript {
+
+    private final String lua;
+
+    private final String sha;
+
+    public RedisScript(String lua) {
+        this.lua = lua;
+        this.sha = sha1(lua);
+    }
+
+    public String getLua() {
+        return lua;
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    private static String sha1(String lua) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(lua.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -165,9 +165,18 @@ public class GatewayRequest implements IGatewayRequest {
         this.requestBuilder.setHeaders(getHeaders());
         this.requestBuilder.setQueryParams(getQueryStringDecoder().parameters());
 
+        if (fullHttpRequest instanceof StreamingFullHttpRequest) {
+            // 流式转发：请求体由客户端分块推送，下游按需拉取，长度未知时使用chunked
+            long contentLength = HttpUtil.getContentLength(fullHttpRequest, -1L);
+            this.requestBuilder.setBody(((StreamingFullHttpRequest) fullHttpRequest).getBody(), contentLength);
+            return;
+        }
+
         ByteBuf contentBuffer = fullHttpRequest.content();
-        if (Objects.nonNull(contentBuffer)) {
-            this.requestBuilder.setBody(contentBuffer.toString(this.charset));
+        if (Objects.nonNull(contentBuffer) && contentBuffer.isReadable()) {
+            // 直接把ByteBuf对应的内存交给下游请求，不再解码成String再编码，二进制请求体也不会被破坏
+            // ByteBuf的生命周期由GatewayContext.releaseRequest()管理，发送期间通过retainContent()保留
+            this.requestBuilder.setBody(contentBuffer.nioBuffer());
         }
 
     }
@@ -178,12 +187,22 @@ public class GatewayRequest implements IGatewayRequest {
      * @return
      */
     public String getBody() {
-        if (StringUtils.isEmpty(body)) {
+        // 流式转发的请求体没有在网关中聚合，无法读取
+        if (StringUtils.isEmpty(body) && !(fullHttpRequest instanceof StreamingFullHttpRequest)) {
             body = fullHttpRequest.content().toString(charset);
         }
         return body;
     }
 
+    /**
+     * 向下游发送请求前保留请求体，保证请求写出之前ByteBuf不会被回收，发送结束后需要release
+     *
+     * @return
+     */
+    public ByteBuf retainContent() {
+        return fullHttpRequest.content().retain();
+    }
+
     /**
      * 获取cookie
      *
@@ -0,0 +1,39 @@
+package org.paul.core.request;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpRequest;
+import lombok.Getter;
+
+/**
+ * 流式转发的请求
+ * 只携带请求行和请求头，content为空，请求体通过StreamingRequestBody分块转发
+ * 这样后续的处理器、过滤器仍然可以按FullHttpRequest处理
+ */
+public class StreamingFullHttpRequest extends DefaultFullHttpRequest {
+
+    @Getter
+    private final StreamingRequestBody body;
+
+    public StreamingFullHttpRequest(HttpRequest request, StreamingRequestBody body) {
+        super(request.protocolVersion(), request.method(), request.uri(), Unpooled.EMPTY_BUFFER);
+        this.body = body;
+        headers().set(request.headers());
+        setDecoderResult(request.decoderResult());
+    }
+
+    /**
+     * 请求结束时释放，同时丢弃还没有转发的请求体
+     */
+    @Override
+    public boolean release() {
+        body.discard();
+        return super.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        body.discard();
+        return super.release(decrement);
+    }
+}
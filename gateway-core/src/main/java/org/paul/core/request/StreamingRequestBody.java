@@ -0,0 +1,186 @@
+package org.paul.core.request;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.paul.core.netty.ReadSuspension;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * 流式转发的请求体
+ * 客户端发来的HttpContent分块不再聚合，而是作为Publisher交给AsyncHttpClient，由下游连接按需拉取
+ * 反压：下游没有需求或暂存分块过多时关闭客户端channel的autoRead，下游拉取后再打开
+ * 所有状态只在客户端channel的EventLoop中修改，因此不需要加锁
+ */
+@Slf4j
+public class StreamingRequestBody implements Publisher<ByteBuffer> {
+
+    // 客户端channel
+    private final Channel channel;
+
+    // 最多暂存的分块数
+    private final int maxPendingChunks;
+
+    // 已经收到、还没有被下游拉取的分块
+    private final Queue<ByteBuffer> pending = new ArrayDeque<>();
+
+    // 下游的订阅者，只允许订阅一次
+    private Subscriber<? super ByteBuffer> subscriber;
+
+    // 下游还需要的分块数
+    private long demand;
+
+    // 是否已经收到LastHttpContent
+    private boolean completed;
+
+    // 是否已经通知下游结束（onComplete/onError）
+    private boolean terminated;
+
+    // 是否已经丢弃，丢弃后收到的分块直接释放
+    private boolean discarded;
+
+    public StreamingRequestBody(Channel channel, int maxPendingChunks) {
+        this.channel = channel;
+        this.maxPendingChunks = maxPendingChunks;
+    }
+
+    /**
+     * 收到客户端的请求体分块，在客户端channel的EventLoop中调用
+     */
+    public void onContent(HttpContent content) {
+        try {
+            if (content instanceof LastHttpContent) {
+                completed = true;
+            }
+            if (discarded) {
+                return;
+            }
+            ByteBuf buf = content.content();
+            if (buf.isReadable()) {
+                // 只拷贝当前分块，网关中最多保留maxPendingChunks个分块，不再聚合整个请求体
+                ByteBuffer chunk = ByteBuffer.allocate(buf.readableBytes());
+                buf.readBytes(chunk);
+                chunk.flip();
+                pending.add(chunk);
+            }
+            drain();
+        } finally {
+            ReferenceCountUtil.release(content);
+        }
+    }
+
+    /**
+     * 客户端连接断开，通知下游请求体异常结束
+     */
+    public void abort(Throwable cause) {
+        runInEventLoop(() -> {
+            pending.clear();
+            discarded = true;
+            if (subscriber != null && !terminated) {
+                terminated = true;
+                subscriber.onError(cause);
+            }
+        });
+    }
+
+    /**
+     * 丢弃剩余的请求体，请求结束或失败时调用，之后收到的分块直接释放，并恢复读取
+     */
+    public void discard() {
+        runInEventLoop(() -> {
+            if (discarded) {
+                return;
+            }
+            discarded = true;
+            pending.clear();
+            updateAutoRead();
+        });
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> s) {
+        runInEventLoop(() -> {
+            if (subscriber != null || discarded) {
+                // 流式请求体无法重放，重试或重复订阅直接失败
+                s.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                s.onError(new IllegalStateException("streaming request body can only be subscribed once"));
+                return;
+            }
+            subscriber = s;
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    runInEventLoop(() -> {
+                        if (n <= 0) {
+                            terminated = true;
+                            subscriber.onError(new IllegalArgumentException("request must be positive, but was " + n));
+                            return;
+                        }
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                        drain();
+                    });
+                }
+
+                @Override
+                public void cancel() {
+                    terminated = true;
+                    discard();
+                }
+            });
+            drain();
+        });
+    }
+
+    /**
+     * 将暂存的分块按下游需求发送出去，并根据暂存情况调整autoRead
+     */
+    private void drain() {
+        if (subscriber != null && !terminated) {
+            while (demand > 0 && !pending.isEmpty()) {
+                demand--;
+                subscriber.onNext(pending.poll());
+            }
+            if (completed && pending.isEmpty()) {
+                terminated = true;
+                subscriber.onComplete();
+            }
+        }
+        updateAutoRead();
+    }
+
+    /**
+     * 暂存分块超过上限时停止读取客户端，请求体读完或者已经丢弃时恢复读取
+     */
+    private void updateAutoRead() {
+        if (completed || discarded || pending.size() < maxPendingChunks) {
+            ReadSuspension.resume(channel, ReadSuspension.REASON_REQUEST_BODY);
+        } else {
+            ReadSuspension.suspend(channel, ReadSuspension.REASON_REQUEST_BODY);
+        }
+    }
+
+    private void runInEventLoop(Runnable task) {
+        if (channel.eventLoop().inEventLoop()) {
+            task.run();
+        } else {
+            channel.eventLoop().execute(task);
+        }
+    }
+}
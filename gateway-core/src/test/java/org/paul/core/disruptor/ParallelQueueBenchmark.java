@@ -0,0 +1,96 @@
+package org.paul.core.disruptor;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量模式（每个消费者一个BatchEventProcessor，按分片读取整个RingBuffer）和默认的WorkerPool模式的吞吐对比
+ * 多个生产者线程放入事件，消费者对每个事件做固定量的计算，队列满时生产者等待，稳定后生产者的吞吐就是消费者的吞吐
+ * 运行：mvn -pl gateway-core test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.paul.core.disruptor.ParallelQueueBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelQueueBenchmark {
+
+    //消费者线程数
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    //是否使用批量模式
+    @Param({"false", "true"})
+    public boolean batch;
+
+    //消费者处理每个事件的计算量，模拟请求处理
+    @Param({"0", "100"})
+    public int work;
+
+    private ParallelQueueHandler<Integer> queue;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int work = this.work;
+        queue = new ParallelQueueHandler.Builder<Integer>()
+                .setBufferSize(1024 * 16)
+                .setThreads(threads)
+                .setNamePrefix("benchmark")
+                .setBatch(batch)
+                .setEventListener(new EventListener<Integer>() {
+                    @Override
+                    public void onEvent(Integer event) {
+                        Blackhole.consumeCPU(work);
+                    }
+
+                    @Override
+                    public void onException(Throwable ex, long sequence, Integer event) {
+                    }
+                })
+                .build();
+        queue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        queue.shutDown();
+    }
+
+    /**
+     * 每个生产者线程放入不同的事件，事件的hashCode作为分片，批量模式下均匀分到各个消费者
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private final Integer[] events = new Integer[1024];
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            for (int i = 0; i < events.length; i++) {
+                events[i] = i;
+            }
+        }
+
+        Integer next() {
+            return events[next++ & (events.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publish(Producer producer) {
+        queue.add(producer.next());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParallelQueueBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,138 @@
+package org.paul.core.disruptor;
+
+import com.lmax.disruptor.dsl.ProducerType;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片队列（每个事件循环一个单生产者RingBuffer）和所有事件循环共用一个多生产者RingBuffer的对比
+ * 事件循环数从2到32，每次调用所有事件循环一共放入TOTAL_EVENTS个事件，测量全部被消费完的时间
+ * 队列大小和消费线程数按DisruptorNettyProcessor的方式在分片之间平分，总量和共用队列一样
+ * 运行：mvn -pl gateway-core test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.paul.core.disruptor.ShardedParallelQueueBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedParallelQueueBenchmark {
+
+    //每次调用放入的事件总数
+    private static final int TOTAL_EVENTS = 1 << 16;
+
+    //队列总大小，和Config.bufferSize的默认值一致
+    private static final int BUFFER_SIZE = 1024 * 16;
+
+    //分片的最小队列大小，和DisruptorNettyProcessor一致
+    private static final int MIN_SHARD_BUFFER_SIZE = 1024;
+
+    //生产者事件循环数，对应Config.eventLoopGroupWorkerNum
+    @Param({"2", "4", "8", "16", "32"})
+    public int eventLoops;
+
+    //消费线程总数，对应Config.processThreadNum
+    @Param({"8"})
+    public int processThreads;
+
+    //是否使用分片队列
+    @Param({"false", "true"})
+    public boolean sharded;
+
+    private EventLoopGroup eventLoopGroup;
+
+    private List<EventLoop> loops;
+
+    private ParallelQueue<Event> queue;
+
+    //本次调用还没有消费的事件数
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private volatile CountDownLatch done;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventLoopGroup = new DefaultEventLoopGroup(eventLoops);
+        loops = new ArrayList<>();
+        for (EventExecutor executor : eventLoopGroup) {
+            loops.add((EventLoop) executor);
+        }
+        EventListener<Event> listener = new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                if (remaining.decrementAndGet() == 0) {
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void onException(Throwable ex, long sequence, Event event) {
+                onEvent(event);
+            }
+        };
+        int shards = sharded ? eventLoops : 1;
+        ParallelQueueHandler.Builder<Event> builder = new ParallelQueueHandler.Builder<Event>()
+                .setBufferSize(sharded ? Integer.highestOneBit(Math.max(MIN_SHARD_BUFFER_SIZE, BUFFER_SIZE / shards)) : BUFFER_SIZE)
+                .setThreads(Math.max(1, processThreads / shards))
+                .setNamePrefix("benchmark")
+                .setProducerType(ProducerType.MULTI)
+                .setEventListener(listener);
+        queue = sharded
+                ? new ShardedParallelQueue<>(builder, shards, "benchmark", event -> event.eventLoop, listener)
+                : builder.build();
+        queue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        queue.shutDown();
+        eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).await();
+    }
+
+    @Benchmark
+    public void publishAndDrain() throws InterruptedException {
+        remaining.set(TOTAL_EVENTS);
+        CountDownLatch latch = new CountDownLatch(1);
+        done = latch;
+        int perLoop = TOTAL_EVENTS / eventLoops;
+        for (EventLoop loop : loops) {
+            Event event = new Event(loop);
+            //和netty的事件循环一样在生产者线程中放入，队列满时add等待空位
+            loop.execute(() -> {
+                for (int i = 0; i < perLoop; i++) {
+                    queue.add(event);
+                }
+            });
+        }
+        latch.await();
+    }
+
+    /**
+     * 事件，带上放入它的事件循环
+     */
+    static final class Event {
+        private final EventLoop eventLoop;
+
+        Event(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ShardedParallelQueueBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
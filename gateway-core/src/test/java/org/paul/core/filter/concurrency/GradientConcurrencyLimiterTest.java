@@ -0,0 +1,131 @@
+package org.paul.core.filter.concurrency;
+
+import org.junit.Test;
+import org.paul.core.ConfigLoader;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 自适应并发限制：名额占用、失败比例回退、按延迟增长和下降，以及按实例id删除
+ * 上限只在跨过窗口边界时更新，测试通过sleep跨过窗口
+ */
+public class GradientConcurrencyLimiterTest {
+
+    private static final long RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 占用n个名额，等待窗口结束后全部释放，第一个释放的请求触发上限的计算
+     */
+    private static void runWindow(GradientConcurrencyLimiter limiter, int n, long rttNanos) throws InterruptedException {
+        for (int i = 0; i < n; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        Thread.sleep(2);
+        for (int i = 0; i < n; i++) {
+            limiter.release(rttNanos, false, true);
+        }
+    }
+
+    /**
+     * 在同一个窗口内释放指定个数的成功和失败请求，再跨过窗口释放一个请求触发计算
+     */
+    private static void runWindow(GradientConcurrencyLimiter limiter, int successes, int drops, boolean lastDropped) throws InterruptedException {
+        for (int i = 0; i < successes + drops; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        for (int i = 0; i < successes; i++) {
+            limiter.release(RTT_NANOS, false, true);
+        }
+        for (int i = 0; i < drops; i++) {
+            limiter.release(RTT_NANOS, true, true);
+        }
+        Thread.sleep(250);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(RTT_NANOS, lastDropped, true);
+    }
+
+    @Test
+    public void acquireRespectsLimit() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(4, 1, 100, 1.5, 1000, 0.5);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(4, limiter.getInFlight());
+        limiter.release(0, false, false);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void backOffWhenDropRatioReached() throws InterruptedException {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(100, 4, 1000, 1.5, 200, 0.5);
+        //6个失败，5个成功
+        runWindow(limiter, 5, 5, true);
+        assertEquals(90, limiter.getLimit());
+    }
+
+    @Test
+    public void noBackOffForOccasionalDrops() throws InterruptedException {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(100, 4, 1000, 1.5, 200, 0.5);
+        //1个失败，10个成功；并发数不到上限一半，上限也不增长
+        runWindow(limiter, 9, 1, false);
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    public void backOffStopsAtMinLimit() throws InterruptedException {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(5, 4, 1000, 1.5, 1, 0.5);
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(2);
+            assertTrue(limiter.tryAcquire());
+            limiter.release(RTT_NANOS, true, true);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void unsampledReleaseDoesNotUpdate() throws InterruptedException {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(100, 4, 1000, 1.5, 1, 0.5);
+        assertTrue(limiter.tryAcquire());
+        Thread.sleep(2);
+        limiter.release(RTT_NANOS, true, false);
+        assertEquals(100, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void growWhenSaturatedWithSteadyLatency() throws InterruptedException {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(100, 4, 1000, 1.5, 1, 0.5);
+        runWindow(limiter, 50, RTT_NANOS);
+        assertTrue(limiter.getLimit() > 100);
+    }
+
+    @Test
+    public void shrinkWhenLatencyRises() throws InterruptedException {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(100, 4, 1000, 1.5, 1, 0.5);
+        runWindow(limiter, 60, RTT_NANOS);
+        int before = limiter.getLimit();
+        runWindow(limiter, 60, RTT_NANOS * 10);
+        assertTrue(limiter.getLimit() < before);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroDropRatio() {
+        new GradientConcurrencyLimiter(10, 1, 100, 1.5, 100, 0);
+    }
+
+    @Test
+    public void removeInstanceMatchesExactId() {
+        ConfigLoader.getInstance().load(new String[0]);
+        GradientConcurrencyLimiter a = GradientConcurrencyLimiter.getInstance("gradient-test", "a:8080");
+        GradientConcurrencyLimiter ba = GradientConcurrencyLimiter.getInstance("gradient-test", "ba:8080");
+        assertSame(a, GradientConcurrencyLimiter.getInstance("gradient-test", "a:8080"));
+        GradientConcurrencyLimiter.removeInstance("a:8080");
+        assertNotSame(a, GradientConcurrencyLimiter.getInstance("gradient-test", "a:8080"));
+        assertSame(ba, GradientConcurrencyLimiter.getInstance("gradient-test", "ba:8080"));
+        GradientConcurrencyLimiter.removeInstance("a:8080");
+        GradientConcurrencyLimiter.removeInstance("ba:8080");
+    }
+}
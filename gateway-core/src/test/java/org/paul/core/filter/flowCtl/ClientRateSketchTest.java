@@ -0,0 +1,101 @@
+package org.paul.core.filter.flowCtl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.paul.common.config.Rule;
+
+import static org.junit.Assert.*;
+import static org.paul.common.constants.FilterConst.FLOW_CTL_FALLBACK_LOCAL;
+
+/**
+ * 按客户端限流的滑动窗口衰减、重度客户端提升和哈希冲突
+ * 每个客户端1秒5个请求，时间由测试传入，从下一个完整窗口开始，结果是确定的
+ */
+public class ClientRateSketchTest {
+
+    private static final int PERMITS = 5;
+
+    private static final long WINDOW_MILLIS = 1000;
+
+    private ClientRateSketch sketch;
+
+    //下一个窗口的开始时间
+    private long base;
+
+    @Before
+    public void setUp() {
+        sketch = newSketch(4, 1024, 16);
+        base = (System.currentTimeMillis() / WINDOW_MILLIS + 1) * WINDOW_MILLIS;
+    }
+
+    private static ClientRateSketch newSketch(int depth, int width, int capacity) {
+        return new ClientRateSketch(new Rule.FlowCtlLimit(PERMITS, 1, PERMITS, 1, 0, FLOW_CTL_FALLBACK_LOCAL, 1),
+                depth, width, capacity);
+    }
+
+    private int drain(String client, long now) {
+        int granted = 0;
+        for (int i = 0; i < PERMITS * 4; i++) {
+            if (sketch.tryAcquire(client, now)) {
+                granted++;
+            }
+        }
+        return granted;
+    }
+
+    @Test
+    public void heavyClientLimitedWithinWindow() {
+        //sketch估算超过限制后才提升到表中精确计数，第一个窗口最多放过两倍的请求
+        int granted = drain("10.0.0.1", base);
+        assertTrue(granted >= PERMITS);
+        assertTrue(granted <= PERMITS * 2);
+        assertFalse(sketch.tryAcquire("10.0.0.1", base + 10));
+    }
+
+    @Test
+    public void previousWindowFullyCountedAtWindowStart() {
+        drain("10.0.0.1", base);
+        assertEquals(0, drain("10.0.0.1", base + WINDOW_MILLIS));
+    }
+
+    @Test
+    public void previousWindowDecaysBySlidingWeight() {
+        drain("10.0.0.1", base);
+        //窗口过了一半，上一窗口的5个请求按一半计算：2.5 + 2 <= 5
+        assertEquals(2, drain("10.0.0.1", base + WINDOW_MILLIS + WINDOW_MILLIS / 2));
+    }
+
+    @Test
+    public void skippedWindowsClearCounts() {
+        drain("10.0.0.1", base);
+        assertEquals(PERMITS, drain("10.0.0.1", base + WINDOW_MILLIS * 3));
+    }
+
+    @Test
+    public void lightClientsNotAffectedByHeavyClient() {
+        drain("10.0.0.1", base);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.tryAcquire("192.168.0." + i, base + 1));
+        }
+    }
+
+    @Test
+    public void hashCollisionsJudgedExactly() {
+        //只有一个计数器，所有客户端都冲突，超过限制后每个客户端在表中按精确计数判断
+        sketch = newSketch(1, 1, 4);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(sketch.tryAcquire("192.168.0." + i, base));
+        }
+    }
+
+    @Test
+    public void millisToNextWindow() {
+        assertEquals(750, sketch.millisToNextWindow(base + 250));
+        assertEquals(WINDOW_MILLIS, sketch.millisToNextWindow(base));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroPermits() {
+        new ClientRateSketch(new Rule.FlowCtlLimit(0, 1, 1, 1, 0, FLOW_CTL_FALLBACK_LOCAL, 1), 4, 1024, 16);
+    }
+}
@@ -9,6 +9,7 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * 单机实现限流
+ * 被TokenBucketLimiter替换前的实现，只作为TokenBucketLimiterBenchmark的对照
  */
 public class GuavaCountLimiter {
     /**
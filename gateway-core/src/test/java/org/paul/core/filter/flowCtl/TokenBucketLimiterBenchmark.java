@@ -0,0 +1,86 @@
+package org.paul.core.filter.flowCtl;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.paul.common.config.Rule;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.paul.common.constants.FilterConst.FLOW_CTL_FALLBACK_LOCAL;
+
+/**
+ * 无锁令牌桶和原来基于Guava RateLimiter的单机限流在1、8、32个线程下获取令牌的开销对比
+ * 所有线程争用同一个限流器，对应热点服务；速率足够高时几乎每次都能拿到令牌，速率低时几乎每次都被拒绝
+ * 运行：mvn -pl gateway-core test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.paul.core.filter.flowCtl.TokenBucketLimiterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenBucketLimiterBenchmark {
+
+    //每秒令牌数
+    @Param({"100000000", "1000"})
+    public int permitsPerSecond;
+
+    //令牌桶的分段数，Guava没有对应的参数
+    @Param({"1", "8"})
+    public int stripes;
+
+    private TokenBucketLimiter tokenBucketLimiter;
+
+    private GuavaCountLimiter guavaCountLimiter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tokenBucketLimiter = new TokenBucketLimiter(new Rule.FlowCtlLimit(permitsPerSecond, 1, permitsPerSecond,
+                stripes, 0, FLOW_CTL_FALLBACK_LOCAL, 1));
+        guavaCountLimiter = new GuavaCountLimiter(permitsPerSecond);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean tokenBucket1() {
+        return tokenBucketLimiter.acquire(1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean tokenBucket8() {
+        return tokenBucketLimiter.acquire(1);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean tokenBucket32() {
+        return tokenBucketLimiter.acquire(1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean guava1() {
+        return guavaCountLimiter.acquire(1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean guava8() {
+        return guavaCountLimiter.acquire(1);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean guava32() {
+        return guavaCountLimiter.acquire(1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenBucketLimiterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,128 @@
+package org.paul.core.filter.flowCtl;
+
+import org.junit.Test;
+import org.paul.common.config.Rule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.paul.common.constants.FilterConst.FLOW_CTL_FALLBACK_LOCAL;
+
+/**
+ * 令牌桶的突发容量、分段和多令牌获取
+ * 速率设置为一小时一个令牌，测试期间不会补充令牌，结果是确定的
+ */
+public class TokenBucketLimiterTest {
+
+    private static Rule.FlowCtlLimit limit(int permits, int duration, int burst, int stripes) {
+        return new Rule.FlowCtlLimit(permits, duration, burst, stripes, 0, FLOW_CTL_FALLBACK_LOCAL, 1);
+    }
+
+    private static int drain(TokenBucketLimiter limiter) {
+        int granted = 0;
+        while (limiter.acquire(1)) {
+            granted++;
+        }
+        return granted;
+    }
+
+    @Test
+    public void fullBucketAllowsBurst() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(limit(1, 3600, 5, 1));
+        assertEquals(5, drain(limiter));
+        assertFalse(limiter.acquire(1));
+    }
+
+    @Test
+    public void stripesShareBurst() {
+        //10个令牌分到4个分段：3、3、2、2，当前线程的分段用完后从其他分段获取
+        TokenBucketLimiter limiter = new TokenBucketLimiter(limit(1, 3600, 10, 4));
+        assertEquals(10, drain(limiter));
+    }
+
+    @Test
+    public void stripesCappedByBurst() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(limit(1, 3600, 2, 8));
+        assertEquals(2, drain(limiter));
+    }
+
+    @Test
+    public void acquireMultiplePermits() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(limit(1, 3600, 5, 1));
+        assertTrue(limiter.acquire(3));
+        //剩下2个令牌，不够3个时不扣减
+        assertFalse(limiter.acquire(3));
+        assertTrue(limiter.acquire(2));
+        assertFalse(limiter.acquire(1));
+    }
+
+    @Test
+    public void concurrentAcquireNeverExceedsBurst() throws InterruptedException {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(limit(1, 3600, 100, 4));
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 1000; j++) {
+                    if (limiter.acquire(1)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, granted.get());
+    }
+
+    @Test
+    public void tokensRefillOverTime() throws InterruptedException {
+        //每100毫秒一个令牌
+        TokenBucketLimiter limiter = new TokenBucketLimiter(limit(10, 1, 1, 1));
+        assertTrue(limiter.acquire(1));
+        assertFalse(limiter.acquire(1));
+        Thread.sleep(150);
+        assertTrue(limiter.acquire(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroBurst() {
+        new TokenBucketLimiter(limit(1, 1, 0, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new TokenBucketLimiter(limit(0, 1, 1, 1));
+    }
+
+    @Test
+    public void getInstanceRebuildsWhenLimitChanges() {
+        Rule.FlowCtlConfig config = new Rule.FlowCtlConfig();
+        config.setType("path");
+        config.setValue("/token-bucket-test");
+        Rule.FlowCtlLimit first = limit(1, 3600, 5, 1);
+        TokenBucketLimiter limiter = TokenBucketLimiter.getInstance("svc", config, first);
+        assertSame(limiter, TokenBucketLimiter.getInstance("svc", config, limit(1, 3600, 5, 1)));
+        assertNotSame(limiter, TokenBucketLimiter.getInstance("svc", config, limit(1, 3600, 6, 1)));
+    }
+
+    @Test
+    public void getInstanceReturnsNullForIncompleteConfig() {
+        Rule.FlowCtlConfig config = new Rule.FlowCtlConfig();
+        config.setType("path");
+        assertNull(TokenBucketLimiter.getInstance("svc", config, limit(1, 1, 1, 1)));
+        config.setValue("/token-bucket-test");
+        assertNull(TokenBucketLimiter.getInstance("svc", config, null));
+        assertNull(TokenBucketLimiter.getInstance("", config, limit(1, 1, 1, 1)));
+    }
+}
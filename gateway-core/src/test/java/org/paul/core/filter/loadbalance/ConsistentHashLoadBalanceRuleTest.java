@@ -0,0 +1,156 @@
+package org.paul.core.filter.loadbalance;
+
+import org.junit.After;
+import org.junit.Test;
+import org.paul.common.config.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 一致性哈希环：key的稳定性、环的首尾相接、增量重建和有界负载
+ */
+public class ConsistentHashLoadBalanceRuleTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private static final int KEYS = 1000;
+
+    //每个测试使用单独的服务，服务的请求数之和互不影响
+    private final String uniqueId = "consistent-hash-test-" + SEQUENCE.incrementAndGet() + ":1.0.0";
+
+    private final List<ServiceInstance> created = new ArrayList<>();
+
+    @After
+    public void removeStats() {
+        created.forEach(ServiceInstanceStats::remove);
+    }
+
+    private ServiceInstance instance(String id) {
+        ServiceInstance instance = new ServiceInstance();
+        instance.setServiceInstanceId(uniqueId + "-" + id);
+        instance.setUniqueId(uniqueId);
+        created.add(instance);
+        return instance;
+    }
+
+    private static ServiceInstance[] locateAll(ConsistentHashLoadBalanceRule.Ring ring) {
+        ServiceInstance[] result = new ServiceInstance[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            result[i] = ring.locate(ConsistentHashLoadBalanceRule.hash("client-" + i));
+        }
+        return result;
+    }
+
+    @Test
+    public void sameKeyAlwaysSameInstance() {
+        ServiceInstance[] instances = {instance("a"), instance("b"), instance("c")};
+        ConsistentHashLoadBalanceRule.Ring ring = ConsistentHashLoadBalanceRule.Ring.rebuild(null, instances, false);
+        ServiceInstance[] first = locateAll(ring);
+        assertArrayEquals(first, locateAll(ring));
+        //虚拟节点让key分布到所有实例
+        Set<ServiceInstance> used = new HashSet<>();
+        for (ServiceInstance instance : first) {
+            used.add(instance);
+        }
+        assertEquals(3, used.size());
+    }
+
+    @Test
+    public void hashAfterLastPointWrapsToFirst() {
+        ServiceInstance[] instances = {instance("a"), instance("b"), instance("c")};
+        ConsistentHashLoadBalanceRule.Ring ring = ConsistentHashLoadBalanceRule.Ring.rebuild(null, instances, false);
+        assertSame(ring.locate(Long.MIN_VALUE), ring.locate(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void addedInstanceOnlyTakesKeys() {
+        ServiceInstance a = instance("a");
+        ServiceInstance b = instance("b");
+        ServiceInstance c = instance("c");
+        ServiceInstance d = instance("d");
+        ConsistentHashLoadBalanceRule.Ring before = ConsistentHashLoadBalanceRule.Ring.rebuild(null, new ServiceInstance[]{a, b, c}, false);
+        ConsistentHashLoadBalanceRule.Ring after = ConsistentHashLoadBalanceRule.Ring.rebuild(before, new ServiceInstance[]{a, b, c, d}, false);
+        ServiceInstance[] oldOwners = locateAll(before);
+        ServiceInstance[] newOwners = locateAll(after);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (oldOwners[i] != newOwners[i]) {
+                assertSame(d, newOwners[i]);
+                moved++;
+            }
+        }
+        assertTrue(moved > 0);
+    }
+
+    @Test
+    public void removedInstanceOnlyGivesUpItsKeys() {
+        ServiceInstance a = instance("a");
+        ServiceInstance b = instance("b");
+        ServiceInstance c = instance("c");
+        ConsistentHashLoadBalanceRule.Ring before = ConsistentHashLoadBalanceRule.Ring.rebuild(null, new ServiceInstance[]{a, b, c}, false);
+        ConsistentHashLoadBalanceRule.Ring after = ConsistentHashLoadBalanceRule.Ring.rebuild(before, new ServiceInstance[]{a, b}, false);
+        ServiceInstance[] oldOwners = locateAll(before);
+        ServiceInstance[] newOwners = locateAll(after);
+        for (int i = 0; i < KEYS; i++) {
+            if (oldOwners[i] != c) {
+                assertSame(oldOwners[i], newOwners[i]);
+            }
+            assertNotSame(c, newOwners[i]);
+        }
+    }
+
+    @Test
+    public void incrementalRebuildMatchesFullBuild() {
+        ServiceInstance a = instance("a");
+        ServiceInstance b = instance("b");
+        ServiceInstance c = instance("c");
+        ServiceInstance[] instances = {a, c};
+        ConsistentHashLoadBalanceRule.Ring previous = ConsistentHashLoadBalanceRule.Ring.rebuild(null, new ServiceInstance[]{a, b}, false);
+        ConsistentHashLoadBalanceRule.Ring incremental = ConsistentHashLoadBalanceRule.Ring.rebuild(previous, instances, false);
+        ConsistentHashLoadBalanceRule.Ring full = ConsistentHashLoadBalanceRule.Ring.rebuild(null, instances, false);
+        assertArrayEquals(locateAll(full), locateAll(incremental));
+    }
+
+    @Test
+    public void overloadedInstanceSpillsToNext() {
+        ServiceInstance[] instances = {instance("a"), instance("b"), instance("c")};
+        ConsistentHashLoadBalanceRule.Ring ring = ConsistentHashLoadBalanceRule.Ring.rebuild(null, instances, false);
+        long hash = ConsistentHashLoadBalanceRule.hash("hot-key");
+        ServiceInstance owner = ring.locate(hash);
+        ServiceInstanceStats stats = ServiceInstanceStats.of(owner);
+
+        //实例有2个请求，其他实例空闲：上限为 ceil((2+1)*1.25/3) = 2，达到上限后溢出
+        stats.onStart();
+        stats.onStart();
+        ServiceInstance spilled = ring.locate(hash);
+        assertNotSame(owner, spilled);
+
+        //负载降下来以后回到原来的实例
+        stats.onComplete(1000);
+        stats.onComplete(1000);
+        assertSame(owner, ring.locate(hash));
+    }
+
+    @Test
+    public void grayRingCountsOnlyGrayInstances() {
+        ServiceInstance[] instances = {instance("a"), instance("b")};
+        ConsistentHashLoadBalanceRule.Ring ring = ConsistentHashLoadBalanceRule.Ring.rebuild(null, instances, true);
+        long hash = ConsistentHashLoadBalanceRule.hash("hot-key");
+        ServiceInstance owner = ring.locate(hash);
+        ServiceInstanceStats stats = ServiceInstanceStats.of(owner);
+
+        //上限为 ceil((2+1)*1.25/2) = 2
+        stats.onStart();
+        stats.onStart();
+        assertNotSame(owner, ring.locate(hash));
+        stats.onComplete(1000);
+        stats.onComplete(1000);
+        assertSame(owner, ring.locate(hash));
+    }
+}
@@ -0,0 +1,163 @@
+package org.paul.core.filter.loadbalance;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.paul.common.config.ServiceInstance;
+import org.paul.common.utils.TimeUtil;
+import org.paul.core.ConfigLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 被动异常检测：摘除条件、摘除时长的指数增长、摘除比例上限和健康检查
+ * 使用默认配置：连续5次失败或者10秒内至少20个请求失败率达到50%时摘除，最多摘除50%的实例
+ */
+public class OutlierDetectorTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private final OutlierDetector detector = OutlierDetector.getInstance();
+
+    private final List<ServiceInstance> created = new ArrayList<>();
+
+    @BeforeClass
+    public static void loadConfig() {
+        ConfigLoader.getInstance().load(new String[0]);
+    }
+
+    @After
+    public void removeStats() {
+        created.forEach(ServiceInstanceStats::remove);
+    }
+
+    private ServiceInstance instance() {
+        ServiceInstance instance = new ServiceInstance();
+        instance.setServiceInstanceId("outlier-test-" + SEQUENCE.incrementAndGet());
+        instance.setUniqueId("outlier-test:1.0.0");
+        created.add(instance);
+        return instance;
+    }
+
+    @Test
+    public void consecutiveErrorsEject() {
+        ServiceInstance instance = instance();
+        ServiceInstanceStats stats = ServiceInstanceStats.of(instance);
+        long epoch = detector.getEpoch();
+        for (int i = 0; i < 4; i++) {
+            detector.record(instance, stats, true);
+        }
+        assertFalse(stats.isEjected(TimeUtil.currentTimeMillis()));
+        detector.record(instance, stats, true);
+        assertTrue(stats.isEjected(TimeUtil.currentTimeMillis()));
+        assertTrue(detector.getEpoch() > epoch);
+    }
+
+    @Test
+    public void successResetsConsecutiveErrors() {
+        ServiceInstance instance = instance();
+        ServiceInstanceStats stats = ServiceInstanceStats.of(instance);
+        for (int i = 0; i < 4; i++) {
+            detector.record(instance, stats, true);
+        }
+        detector.record(instance, stats, false);
+        for (int i = 0; i < 4; i++) {
+            detector.record(instance, stats, true);
+        }
+        assertFalse(stats.isEjected(TimeUtil.currentTimeMillis()));
+    }
+
+    @Test
+    public void errorRateEject() {
+        ServiceInstance instance = instance();
+        ServiceInstanceStats stats = ServiceInstanceStats.of(instance);
+        //失败和成功交替，连续失败次数不超过1，第20个请求时失败率达到50%
+        for (int i = 0; i < 19; i++) {
+            detector.record(instance, stats, i % 2 == 1);
+        }
+        assertFalse(stats.isEjected(TimeUtil.currentTimeMillis()));
+        detector.record(instance, stats, true);
+        assertTrue(stats.isEjected(TimeUtil.currentTimeMillis()));
+    }
+
+    @Test
+    public void ejectionGrowsExponentially() {
+        ServiceInstanceStats stats = ServiceInstanceStats.of(instance());
+        long now = 1_000_000;
+        assertEquals(1000, stats.eject(now, 1000, 5000));
+        //已经被摘除时不重复摘除
+        assertEquals(0, stats.eject(now + 500, 1000, 5000));
+        now += 1000;
+        assertEquals(2000, stats.eject(now, 1000, 5000));
+        now += 2000;
+        assertEquals(4000, stats.eject(now, 1000, 5000));
+        now += 4000;
+        assertEquals(5000, stats.eject(now, 1000, 5000));
+    }
+
+    @Test
+    public void ejectionCountResetsAfterStablePeriod() {
+        ServiceInstanceStats stats = ServiceInstanceStats.of(instance());
+        long now = 1_000_000;
+        assertEquals(1000, stats.eject(now, 1000, 5000));
+        now += 1000;
+        assertEquals(2000, stats.eject(now, 1000, 5000));
+        //恢复后超过最长摘除时间没有再被摘除
+        now += 2000 + 5001;
+        stats.recordResult(false, now, 10000, 5000);
+        assertEquals(1000, stats.eject(now, 1000, 5000));
+    }
+
+    @Test
+    public void filterKeepsLatestEjectedWithinCap() {
+        ServiceInstance[] instances = {instance(), instance(), instance(), instance()};
+        long now = TimeUtil.currentTimeMillis();
+        ServiceInstanceStats.of(instances[0]).eject(now, 1000, 300000);
+        ServiceInstanceStats.of(instances[1]).eject(now, 2000, 300000);
+        ServiceInstanceStats.of(instances[2]).eject(now, 3000, 300000);
+        //4个实例最多摘除2个，最早恢复的实例放回
+        OutlierDetector.AvailableInstances available = detector.filter(instances, now);
+        assertArrayEquals(new ServiceInstance[]{instances[0], instances[3]}, available.instances);
+        assertEquals(now + 2000, available.validUntil);
+    }
+
+    @Test
+    public void filterReturnsAllWhenCapIsZero() {
+        ServiceInstance[] instances = {instance()};
+        long now = TimeUtil.currentTimeMillis();
+        ServiceInstanceStats.of(instances[0]).eject(now, 1000, 300000);
+        OutlierDetector.AvailableInstances available = detector.filter(instances, now);
+        assertSame(instances, available.instances);
+        assertEquals(now + ConfigLoader.getConfig().getOutlierIntervalMillis(), available.validUntil);
+    }
+
+    @Test
+    public void filterReusesArrayWithoutEjection() {
+        ServiceInstance[] instances = {instance(), instance()};
+        long now = TimeUtil.currentTimeMillis();
+        OutlierDetector.AvailableInstances available = detector.filter(instances, now);
+        assertSame(instances, available.instances);
+        assertTrue(available.isValid(instances, detector.getEpoch(), now));
+    }
+
+    @Test
+    public void unhealthyInstanceFilteredUntilRecovered() {
+        ServiceInstance[] instances = {instance(), instance()};
+        long epoch = detector.getEpoch();
+        detector.updateHealth(instances[0], false);
+        assertTrue(detector.getEpoch() > epoch);
+        long now = TimeUtil.currentTimeMillis();
+        OutlierDetector.AvailableInstances available = detector.filter(instances, now);
+        assertArrayEquals(new ServiceInstance[]{instances[1]}, available.instances);
+        //健康检查不通过的实例没有恢复时间，结果一直有效直到版本号变化
+        assertEquals(Long.MAX_VALUE, available.validUntil);
+
+        detector.updateHealth(instances[0], true);
+        assertFalse(available.isValid(instances, detector.getEpoch(), now));
+        assertSame(instances, detector.filter(instances, now).instances);
+    }
+}
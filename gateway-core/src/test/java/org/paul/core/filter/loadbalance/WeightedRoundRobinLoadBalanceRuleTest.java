@@ -0,0 +1,133 @@
+package org.paul.core.filter.loadbalance;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.paul.common.config.ServiceInstance;
+import org.paul.core.ConfigLoader;
+
+import static org.junit.Assert.*;
+
+/**
+ * 平滑加权轮询选择序列的生成：权重分布、约分和缩放、权重异常和预热
+ */
+public class WeightedRoundRobinLoadBalanceRuleTest {
+
+    @BeforeClass
+    public static void loadConfig() {
+        //预热系数读取网关配置，使用默认值：预热60秒，最小比例10%
+        ConfigLoader.getInstance().load(new String[0]);
+    }
+
+    private static ServiceInstance instance(String id, Integer weight, long registerTime) {
+        ServiceInstance instance = new ServiceInstance();
+        instance.setServiceInstanceId(id);
+        instance.setWeight(weight);
+        instance.setRegisterTime(registerTime);
+        return instance;
+    }
+
+    private static ServiceInstance instance(String id, Integer weight) {
+        return instance(id, weight, 0);
+    }
+
+    private static int count(ServiceInstance[] sequence, ServiceInstance instance) {
+        int count = 0;
+        for (ServiceInstance element : sequence) {
+            if (element == instance) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void smoothSequence() {
+        ServiceInstance a = instance("a", 5);
+        ServiceInstance b = instance("b", 1);
+        ServiceInstance c = instance("c", 1);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{a, b, c}, 0);
+        assertArrayEquals(new ServiceInstance[]{a, a, b, a, c, a, a}, sequence);
+    }
+
+    @Test
+    public void weightsReducedByGcd() {
+        ServiceInstance a = instance("a", 300);
+        ServiceInstance b = instance("b", 100);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{a, b}, 0);
+        assertEquals(4, sequence.length);
+        assertEquals(1, count(sequence, b));
+    }
+
+    @Test
+    public void zeroWeightNeverChosen() {
+        ServiceInstance a = instance("a", 0);
+        ServiceInstance b = instance("b", 2);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{a, b}, 0);
+        assertArrayEquals(new ServiceInstance[]{b}, sequence);
+    }
+
+    @Test
+    public void negativeWeightTreatedAsZero() {
+        ServiceInstance a = instance("a", -5);
+        ServiceInstance b = instance("b", 3);
+        assertEquals(0, WeightedRoundRobinLoadBalanceRule.weightOf(a));
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{a, b}, 0);
+        assertEquals(0, count(sequence, a));
+    }
+
+    @Test
+    public void allZeroWeightsFallBackToRoundRobin() {
+        ServiceInstance[] instances = {instance("a", 0), instance("b", 0)};
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(instances, 0);
+        assertArrayEquals(instances, sequence);
+        assertNotSame(instances, sequence);
+    }
+
+    @Test
+    public void missingWeightUsesDefault() {
+        ServiceInstance a = instance("a", null);
+        ServiceInstance b = instance("b", null);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{a, b}, 0);
+        assertArrayEquals(new ServiceInstance[]{a, b}, sequence);
+    }
+
+    @Test
+    public void longScheduleScaledDown() {
+        ServiceInstance a = instance("a", 10000);
+        ServiceInstance b = instance("b", 1);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{a, b}, 0);
+        assertEquals(4096, sequence.length);
+        //缩小后权重很小的实例至少保留一次
+        assertEquals(1, count(sequence, b));
+    }
+
+    @Test
+    public void warmingInstanceGetsPartialWeight() {
+        long now = System.currentTimeMillis();
+        //预热了一半，权重按50计算
+        ServiceInstance warming = instance("a", 100, now - 30000);
+        ServiceInstance warm = instance("b", 100, 0);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{warming, warm}, now);
+        assertEquals(3, sequence.length);
+        assertEquals(1, count(sequence, warming));
+    }
+
+    @Test
+    public void newInstanceGetsMinimumWarmupWeight() {
+        long now = System.currentTimeMillis();
+        ServiceInstance fresh = instance("a", 100, now);
+        ServiceInstance warm = instance("b", 100, 0);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{fresh, warm}, now);
+        assertEquals(11, sequence.length);
+        assertEquals(1, count(sequence, fresh));
+    }
+
+    @Test
+    public void warmupIgnoredWhenNotRequested() {
+        long now = System.currentTimeMillis();
+        ServiceInstance fresh = instance("a", 100, now);
+        ServiceInstance warm = instance("b", 100, 0);
+        ServiceInstance[] sequence = WeightedRoundRobinLoadBalanceRule.buildSchedule(new ServiceInstance[]{fresh, warm}, 0);
+        assertArrayEquals(new ServiceInstance[]{fresh, warm}, sequence);
+    }
+}
@@ -0,0 +1,82 @@
+package org.paul.core.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.paul.core.netty.ReadSuspension.REASON_OVERFLOW;
+import static org.paul.core.netty.ReadSuspension.REASON_REQUEST_BODY;
+
+/**
+ * 按原因暂停和恢复读取：只有所有原因都解除后才恢复autoRead，并发起一次read
+ */
+public class ReadSuspensionTest {
+
+    private EmbeddedChannel channel;
+
+    //经过pipeline的read次数
+    private int reads;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void read(ChannelHandlerContext ctx) throws Exception {
+                reads++;
+                super.read(ctx);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void suspendAndResume() {
+        ReadSuspension.suspend(channel, REASON_OVERFLOW);
+        assertFalse(channel.config().isAutoRead());
+        int before = reads;
+        ReadSuspension.resume(channel, REASON_OVERFLOW);
+        assertTrue(channel.config().isAutoRead());
+        assertTrue(reads > before);
+    }
+
+    @Test
+    public void resumeWaitsForAllReasons() {
+        ReadSuspension.suspend(channel, REASON_OVERFLOW);
+        ReadSuspension.suspend(channel, REASON_REQUEST_BODY);
+        ReadSuspension.resume(channel, REASON_OVERFLOW);
+        assertFalse(channel.config().isAutoRead());
+        ReadSuspension.resume(channel, REASON_REQUEST_BODY);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void resumeOtherReasonKeepsSuspended() {
+        ReadSuspension.suspend(channel, REASON_REQUEST_BODY);
+        ReadSuspension.resume(channel, REASON_OVERFLOW);
+        assertFalse(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void repeatedSuspendNeedsSingleResume() {
+        ReadSuspension.suspend(channel, REASON_OVERFLOW);
+        ReadSuspension.suspend(channel, REASON_OVERFLOW);
+        ReadSuspension.resume(channel, REASON_OVERFLOW);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void resumeWithoutSuspendDoesNotRead() {
+        int before = reads;
+        ReadSuspension.resume(channel, REASON_OVERFLOW);
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(before, reads);
+    }
+}
@@ -0,0 +1,191 @@
+package org.paul.core.netty.processor;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.paul.common.config.DynamicConfigManager;
+import org.paul.common.config.Rule;
+import org.paul.common.config.ServiceDefinition;
+import org.paul.core.Config;
+import org.paul.core.context.HttpRequestWrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.paul.common.constants.GatewayConst.*;
+
+/**
+ * 过载保护：按优先级丢弃、过载程度的计算、请求头只能降低优先级，以及丢弃时的响应
+ * 队列占用比例由测试直接设置，阈值为50%；请求没有服务唯一id时找不到规则，优先级按normal处理
+ */
+public class AdmissionControllerTest {
+
+    private Config config;
+
+    //队列的占用比例
+    private double occupancy;
+
+    @Before
+    public void setUp() {
+        config = new Config();
+        config.setAdmissionEnabled(true);
+        config.setAdmissionRingOccupancy(0.5d);
+        config.setAdmissionQueueWaitMillis(10);
+        occupancy = 0;
+    }
+
+    private AdmissionController newController() {
+        return new AdmissionController(config, () -> occupancy);
+    }
+
+    private static HttpRequest request(String priority) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/http-demo/ping");
+        if (priority != null) {
+            request.headers().set(PRIORITY_HEADER, priority);
+        }
+        return request;
+    }
+
+    private static int admitted(AdmissionController controller, HttpRequest request) {
+        int admitted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (controller.admit(request)) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+
+    @Test
+    public void disabledAdmitsEverything() {
+        config.setAdmissionEnabled(false);
+        occupancy = 1;
+        AdmissionController controller = newController();
+        assertEquals(1000, admitted(controller, request(String.valueOf(PRIORITY_LOW))));
+    }
+
+    @Test
+    public void noSheddingBelowLowStart() {
+        //过载程度0.4
+        occupancy = 0.2;
+        AdmissionController controller = newController();
+        assertEquals(1000, admitted(controller, request(String.valueOf(PRIORITY_LOW))));
+    }
+
+    @Test
+    public void lowShedFirst() {
+        //过载程度1：low全部丢弃，normal全部放行
+        occupancy = 0.5;
+        AdmissionController controller = newController();
+        assertEquals(1.0d, controller.pressure(), 1e-9);
+        assertEquals(0, admitted(controller, request(String.valueOf(PRIORITY_LOW))));
+        assertEquals(1000, admitted(controller, request(null)));
+    }
+
+    @Test
+    public void lowShedProportionally() {
+        //过载程度0.75：low丢弃一半
+        occupancy = 0.375;
+        AdmissionController controller = newController();
+        int admitted = admitted(controller, request(String.valueOf(PRIORITY_LOW)));
+        assertTrue(admitted > 350 && admitted < 650);
+    }
+
+    @Test
+    public void normalShedAtDoublePressure() {
+        //过载程度2：normal全部丢弃，没有规则时请求头不能把优先级提高到critical
+        occupancy = 1;
+        AdmissionController controller = newController();
+        assertEquals(0, admitted(controller, request(null)));
+        assertEquals(0, admitted(controller, request(String.valueOf(PRIORITY_CRITICAL))));
+    }
+
+    @Test
+    public void criticalRuleNeverShed() {
+        String uniqueId = "admission-test:1.0.0";
+        Rule rule = new Rule();
+        rule.setId("admission-test-rule");
+        rule.setServiceId("admission-test");
+        rule.setPrefix("/critical");
+        rule.setPriority(PRIORITY_CRITICAL);
+        DynamicConfigManager.getInstance().putServiceDefinition(uniqueId,
+                new ServiceDefinition(uniqueId, "admission-test", "1.0.0", "http", "/**", "dev", true, null));
+        DynamicConfigManager.getInstance().putRule(rule.getId(), rule);
+        try {
+            occupancy = 1;
+            AdmissionController controller = newController();
+            HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/critical/pay?id=1");
+            request.headers().set(UNIQUE_ID, uniqueId);
+            assertEquals(PRIORITY_CRITICAL, AdmissionController.priorityOf(request));
+            assertEquals(1000, admitted(controller, request));
+            //请求头可以降低规则的优先级
+            request.headers().set(PRIORITY_HEADER, String.valueOf(PRIORITY_LOW));
+            assertEquals(0, admitted(controller, request));
+        } finally {
+            DynamicConfigManager.getInstance().removeRule(rule.getId());
+            DynamicConfigManager.getInstance().removeServiceDefinition(uniqueId);
+        }
+    }
+
+    @Test
+    public void headerOnlyLowersPriority() {
+        assertEquals(PRIORITY_NORMAL, AdmissionController.priorityOf(request(null)));
+        assertEquals(PRIORITY_LOW, AdmissionController.priorityOf(request(String.valueOf(PRIORITY_LOW))));
+        assertEquals(PRIORITY_NORMAL, AdmissionController.priorityOf(request(String.valueOf(PRIORITY_CRITICAL))));
+        assertEquals(PRIORITY_NORMAL, AdmissionController.priorityOf(request("urgent")));
+    }
+
+    @Test
+    public void queueWaitRaisesPressure() {
+        AdmissionController controller = newController();
+        assertEquals(0d, controller.pressure(), 1e-9);
+        //等待50毫秒，阈值10毫秒
+        controller.recordQueueWait(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(controller.pressure() >= 5);
+    }
+
+    @Test
+    public void queueWaitIgnoredWhenDisabled() {
+        config.setAdmissionEnabled(false);
+        AdmissionController controller = newController();
+        controller.recordQueueWait(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0d, controller.pressure(), 1e-9);
+    }
+
+    @Test
+    public void shedKeepsKeepAliveConnection() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/http-demo/ping");
+        AdmissionController.shed(wrap(channel, request));
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertEquals(HttpHeaderValues.KEEP_ALIVE.toString(), response.headers().get(HttpHeaderNames.CONNECTION));
+        assertEquals(0, request.refCnt());
+        assertTrue(channel.isOpen());
+        response.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shedClosesNonKeepAliveConnection() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_0, HttpMethod.GET, "/http-demo/ping");
+        AdmissionController.shed(wrap(channel, request));
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertFalse(channel.isOpen());
+        response.release();
+        channel.finishAndReleaseAll();
+    }
+
+    private static HttpRequestWrapper wrap(EmbeddedChannel channel, FullHttpRequest request) {
+        HttpRequestWrapper wrapper = new HttpRequestWrapper();
+        wrapper.setRequest(request);
+        wrapper.setCtx(channel.pipeline().firstContext());
+        return wrapper;
+    }
+}